@@ -11,23 +11,32 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.security.Permission;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.InflaterInputStream;
 
 import static org.junit.Assert.*;
 
@@ -281,6 +290,53 @@ public class GitletTests {
         }
     }
 
+    /**
+     * Returns the number of commits in the commit graph file of the current
+     * testing directory.
+     */
+    public static int commitGraphSize() throws IOException {
+        byte[] data = Files.readAllBytes(Path.of(".gitlet", "commit-graph"));
+        return ByteBuffer.wrap(data).getInt(4);
+    }
+
+    /**
+     * Returns the number of loose blobs and chunks in the current testing
+     * directory.
+     */
+    public static long looseObjectCount() throws IOException {
+        try (Stream<Path> paths = Files.walk(Path.of(".gitlet", "objects"))) {
+            return paths.filter(Files::isRegularFile)
+                .filter(p -> !p.getFileName().toString().startsWith("tmp-"))
+                .count();
+        }
+    }
+
+    /**
+     * Returns LENGTH bytes that do not repeat, made from SEED.
+     */
+    public static byte[] randomBytes(int length, long seed) {
+        byte[] result = new byte[length];
+        new Random(seed).nextBytes(result);
+        return result;
+    }
+
+    /**
+     * Copies a directory of source testing files into the current testing
+     * directory.
+     *
+     * @param src -- Path to source directory
+     * @param dst -- directory name to write to; must not exist
+     */
+    public static void copyDirectory(Path src, String dst) {
+        try (Stream<Path> paths = Files.walk(src)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                Files.copy(path, Path.of(dst).resolve(src.relativize(path)));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Deletes a file from the current testing directory.
      *
@@ -450,6 +506,27 @@ public class GitletTests {
         return checkOutputRegex(pattern);
     }
 
+    /**
+     * Runs the given Gitlet command with a crash simulated at the given step
+     * of its final write, and checks that it was interrupted there.
+     *
+     * @param step
+     * @param args
+     */
+    public static void crashingGitletCommand(String step, String[] args) {
+        System.setProperty("gitlet.fault", step);
+        try {
+            runGitletCommand(args);
+            fail("Expected a simulated crash at " + step);
+        } catch (RuntimeException e) {
+            assertTrue("Unexpected exception " + e.getCause(),
+                    String.valueOf(e.getCause()).contains("simulated crash at " + step));
+        } finally {
+            System.clearProperty("gitlet.fault");
+            getOutput();
+        }
+    }
+
     public static void i_prelude1() {
         gitletCommand(new String[]{"init"}, "");
     }
@@ -1465,4 +1542,1075 @@ public class GitletTests {
         assertFileEquals(NOTF, "F.txt");
         assertFileEquals(G, "G.txt");
     }
+
+    @Test
+    public void test50_crashWritingTempFile() {
+        i_setup1();
+        crashingGitletCommand("temp", new String[]{"commit", "Two files"});
+        gitletCommand(new String[]{"status"}, """
+                === Branches ===
+                *main
+
+                === Staged Files ===
+                f.txt
+                g.txt
+
+                === Removed Files ===
+
+                === Modifications Not Staged For Commit ===
+
+                === Untracked Files ===
+
+                """);
+        gitletCommandP(new String[]{"log"}, """
+                ===
+                ${COMMIT_HEAD}
+                initial commit
+
+                """.replace("${COMMIT_HEAD}", COMMIT_HEAD));
+        assertFileDoesNotExist(".gitlet/journal");
+        gitletCommand(new String[]{"commit", "Two files"}, "");
+        i_blankStatus();
+    }
+
+    @Test
+    public void test51_crashWritingJournal() {
+        i_setup1();
+        crashingGitletCommand("journal", new String[]{"commit", "Two files"});
+        assertFileExists(".gitlet/journal");
+        gitletCommand(new String[]{"status"}, """
+                === Branches ===
+                *main
+
+                === Staged Files ===
+                f.txt
+                g.txt
+
+                === Removed Files ===
+
+                === Modifications Not Staged For Commit ===
+
+                === Untracked Files ===
+
+                """);
+        assertFileDoesNotExist(".gitlet/journal");
+        gitletCommandP(new String[]{"log"}, """
+                ===
+                ${COMMIT_HEAD}
+                initial commit
+
+                """.replace("${COMMIT_HEAD}", COMMIT_HEAD));
+    }
+
+    @Test
+    public void test52_crashBeforeApplyingJournal() {
+        i_setup1();
+        crashingGitletCommand("apply", new String[]{"commit", "Two files"});
+        assertFileExists(".gitlet/journal");
+        i_blankStatus();
+        assertFileDoesNotExist(".gitlet/journal");
+        gitletCommandP(new String[]{"log"}, """
+                ===
+                ${COMMIT_HEAD}
+                Two files
+
+                ===
+                ${COMMIT_HEAD}
+                initial commit
+
+                """.replace("${COMMIT_HEAD}", COMMIT_HEAD));
+    }
+
+    @Test
+    public void test53_crashWhileApplyingJournal() {
+        i_setup2();
+        writeFile(WUG, "h.txt");
+        gitletCommand(new String[]{"add", "h.txt"}, "");
+        crashingGitletCommand("rename", new String[]{"commit", "Add h"});
+        i_blankStatus();
+        gitletCommandP(new String[]{"log"}, """
+                ===
+                ${COMMIT_HEAD}
+                Add h
+
+                ===
+                ${COMMIT_HEAD}
+                Two files
+
+                ===
+                ${COMMIT_HEAD}
+                initial commit
+
+                """.replace("${COMMIT_HEAD}", COMMIT_HEAD));
+    }
+
+    @Test
+    public void test54_crashWhileAdding() {
+        i_prelude1();
+        writeFile(WUG, "f.txt");
+        crashingGitletCommand("temp", new String[]{"add", "f.txt"});
+        gitletCommand(new String[]{"status"}, """
+                === Branches ===
+                *main
+
+                === Staged Files ===
+
+                === Removed Files ===
+
+                === Modifications Not Staged For Commit ===
+
+                === Untracked Files ===
+                f.txt
+
+                """);
+        gitletCommand(new String[]{"add", "f.txt"}, "");
+        gitletCommand(new String[]{"commit", "Add f"}, "");
+        assertFileEquals(WUG, "f.txt");
+    }
+
+    @Test
+    public void test55_subdirectories() throws IOException {
+        i_prelude1();
+        Files.createDirectories(Path.of("src", "a"));
+        writeFile(WUG, "src/a/f.txt");
+        writeFile(NOTWUG, "src/g.txt");
+        gitletCommand(new String[]{"add", "src/a/f.txt"}, "");
+        gitletCommand(new String[]{"add", "src/g.txt"}, "");
+        gitletCommand(new String[]{"status"}, """
+                === Branches ===
+                *main
+
+                === Staged Files ===
+                src/a/f.txt
+                src/g.txt
+
+                === Removed Files ===
+
+                === Modifications Not Staged For Commit ===
+
+                === Untracked Files ===
+
+                """);
+        gitletCommand(new String[]{"commit", "Nested files"}, "");
+        gitletCommand(new String[]{"branch", "other"}, "");
+        gitletCommand(new String[]{"rm", "src/a/f.txt"}, "");
+        assertFileDoesNotExist("src/a");
+        gitletCommand(new String[]{"commit", "Remove f"}, "");
+        gitletCommand(new String[]{"checkout", "other"}, "");
+        assertFileEquals(WUG, "src/a/f.txt");
+        assertFileEquals(NOTWUG, "src/g.txt");
+    }
+
+    @Test
+    public void test56_addSeveralPaths() throws IOException {
+        i_prelude1();
+        Files.createDirectories(Path.of("src", "a"));
+        writeFile(WUG, "src/a/f.txt");
+        writeFile(NOTWUG, "src/g.java");
+        writeFile(WUG2, "h.java");
+        writeFile(WUG3, "k.txt");
+        gitletCommand(new String[]{"add", "src", "*.java"}, "");
+        gitletCommand(new String[]{"status"}, """
+                === Branches ===
+                *main
+
+                === Staged Files ===
+                h.java
+                src/a/f.txt
+                src/g.java
+
+                === Removed Files ===
+
+                === Modifications Not Staged For Commit ===
+
+                === Untracked Files ===
+                k.txt
+
+                """);
+        gitletCommand(new String[]{"add", "k.txt", "missing.txt"},
+                      "File does not exist.");
+        gitletCommand(new String[]{"add", "."}, "");
+        gitletCommand(new String[]{"commit", "Everything"}, "");
+        gitletCommand(new String[]{"status"}, """
+                === Branches ===
+                *main
+
+                === Staged Files ===
+
+                === Removed Files ===
+
+                === Modifications Not Staged For Commit ===
+
+                === Untracked Files ===
+
+                """);
+    }
+
+    @Test
+    public void test57_ancestorThroughFirstParent() throws IOException {
+        i_prelude1();
+        writeFile(WUG, "f.txt");
+        gitletCommand(new String[]{"add", "f.txt"}, "");
+        gitletCommand(new String[]{"commit", "Add f"}, "");
+        gitletCommand(new String[]{"branch", "b"}, "");
+        gitletCommand(new String[]{"checkout", "b"}, "");
+        writeFile(NOTWUG, "g.txt");
+        gitletCommand(new String[]{"add", "g.txt"}, "");
+        gitletCommand(new String[]{"commit", "Add g"}, "");
+        gitletCommand(new String[]{"checkout", "main"}, "");
+        writeFile(WUG2, "f.txt");
+        gitletCommand(new String[]{"add", "f.txt"}, "");
+        gitletCommand(new String[]{"commit", "Change f"}, "");
+        gitletCommand(new String[]{"branch", "c"}, "");
+        gitletCommand(new String[]{"merge", "b"}, "");
+        gitletCommand(new String[]{"merge", "c"},
+                      "Given branch is an ancestor of the current branch.");
+        gitletCommand(new String[]{"repack"}, "");
+        gitletCommand(new String[]{"merge", "c"},
+                      "Given branch is an ancestor of the current branch.");
+        gitletCommand(new String[]{"checkout", "c"}, "");
+        gitletCommand(new String[]{"merge", "main"},
+                      "Current branch fast-forwarded.");
+        assertFileEquals(WUG2, "f.txt");
+        assertFileEquals(NOTWUG, "g.txt");
+    }
+
+    @Test
+    public void test58_crissCrossMerge() throws IOException {
+        i_prelude1();
+        writeFile(WUG, "f.txt");
+        gitletCommand(new String[]{"add", "f.txt"}, "");
+        gitletCommand(new String[]{"commit", "Add f"}, "");
+        gitletCommand(new String[]{"branch", "b"}, "");
+        writeFile(WUG, "x.txt");
+        gitletCommand(new String[]{"add", "x.txt"}, "");
+        gitletCommand(new String[]{"commit", "Add x"}, "");
+        gitletCommand(new String[]{"branch", "m1"}, "");
+        gitletCommand(new String[]{"checkout", "b"}, "");
+        writeFile(NOTWUG, "y.txt");
+        gitletCommand(new String[]{"add", "y.txt"}, "");
+        gitletCommand(new String[]{"commit", "Add y"}, "");
+        gitletCommand(new String[]{"branch", "b1"}, "");
+        gitletCommand(new String[]{"merge", "m1"}, "");
+        gitletCommand(new String[]{"checkout", "main"}, "");
+        gitletCommand(new String[]{"merge", "b1"}, "");
+        writeFile(WUG2, "x.txt");
+        gitletCommand(new String[]{"add", "x.txt"}, "");
+        gitletCommand(new String[]{"commit", "Change x"}, "");
+        gitletCommand(new String[]{"checkout", "b"}, "");
+        gitletCommand(new String[]{"rm", "y.txt"}, "");
+        gitletCommand(new String[]{"commit", "Remove y"}, "");
+        gitletCommand(new String[]{"checkout", "main"}, "");
+        gitletCommand(new String[]{"merge", "b"}, "");
+        assertFileEquals(WUG2, "x.txt");
+        assertFileEquals(WUG, "f.txt");
+        assertFileDoesNotExist("y.txt");
+    }
+
+    @Test
+    public void test59_logsAfterRepack() throws IOException {
+        i_prelude1();
+        writeFile(WUG, "f.txt");
+        gitletCommand(new String[]{"add", "f.txt"}, "");
+        gitletCommand(new String[]{"commit", "Add f"}, "");
+        gitletCommand(new String[]{"branch", "b"}, "");
+        gitletCommand(new String[]{"checkout", "b"}, "");
+        writeFile(NOTWUG, "g.txt");
+        gitletCommand(new String[]{"add", "g.txt"}, "");
+        gitletCommand(new String[]{"commit", "Add g"}, "");
+        gitletCommand(new String[]{"checkout", "main"}, "");
+        runGitletCommand(new String[]{"log"});
+        String log = getOutput();
+        runGitletCommand(new String[]{"global-log"});
+        String globalLog = getOutput();
+        gitletCommand(new String[]{"repack"}, "");
+        gitletCommand(new String[]{"log"}, log);
+        gitletCommand(new String[]{"global-log"}, globalLog);
+        writeFile(WUG2, "f.txt");
+        gitletCommand(new String[]{"add", "f.txt"}, "");
+        gitletCommand(new String[]{"commit", "Change f"}, "");
+        Matcher m = gitletCommandP(new String[]{"log"},
+                "===\ncommit [a-f0-9]+\nDate: .*\nChange f\n\n"
+                + "(===\n(?:.|\n)*)");
+        assertEquals(normalizeStdOut(log).stripTrailing(),
+                m.group(1).stripTrailing());
+        gitletCommandP(new String[]{"global-log"},
+                ARBLINES + "Change f" + ARBLINES);
+        gitletCommandP(new String[]{"global-log"},
+                ARBLINES + "Add g" + ARBLINES);
+    }
+
+    @Test
+    public void test60_checkoutKeepsStagedFiles() {
+        i_prelude1();
+        writeFile(WUG, "f.txt");
+        gitletCommand(new String[]{"add", "f.txt"}, "");
+        gitletCommand(new String[]{"commit", "Add f"}, "");
+        gitletCommand(new String[]{"branch", "b"}, "");
+        writeFile(NOTWUG, "new.txt");
+        gitletCommand(new String[]{"add", "new.txt"}, "");
+        gitletCommand(new String[]{"checkout", "b"}, "");
+        assertFileEquals(NOTWUG, "new.txt");
+        assertFileEquals(WUG, "f.txt");
+        gitletCommand(new String[]{"status"}, """
+                === Branches ===
+                *b
+                main
+
+                === Staged Files ===
+
+                === Removed Files ===
+
+                === Modifications Not Staged For Commit ===
+
+                === Untracked Files ===
+                new.txt
+
+                """);
+    }
+
+    @Test
+    public void test61_crashWhileAppendingMessageLog() throws IOException {
+        i_setup1();
+        crashingGitletCommand("log", new String[]{"commit", "Two files"});
+        gitletCommandP(new String[]{"log"}, """
+                ===
+                ${COMMIT_HEAD}
+                initial commit
+
+                """.replace("${COMMIT_HEAD}", COMMIT_HEAD));
+        gitletCommand(new String[]{"find", "Two files"},
+                      "Found no commit with that message.");
+        gitletCommand(new String[]{"commit", "Two files"}, "");
+        i_blankStatus();
+        gitletCommandP(new String[]{"find", "Two files"}, "[a-f0-9]+\n");
+        gitletCommandP(new String[]{"global-log"},
+                ARBLINES + "Two files" + ARBLINES);
+
+        Path log = Path.of(".gitlet", "message-log");
+        byte[] data = Files.readAllBytes(log);
+        Files.write(log, Arrays.copyOf(data, data.length - 3));
+        gitletCommandP(new String[]{"log"}, """
+                ===
+                ${COMMIT_HEAD}
+                Two files
+
+                ===
+                ${COMMIT_HEAD}
+                initial commit
+
+                """.replace("${COMMIT_HEAD}", COMMIT_HEAD));
+        writeFile(WUG2, "f.txt");
+        gitletCommand(new String[]{"add", "f.txt"}, "");
+        gitletCommand(new String[]{"commit", "Change f"}, "");
+        gitletCommandP(new String[]{"find", "Change f"}, "[a-f0-9]+\n");
+        gitletCommandP(new String[]{"global-log"},
+                ARBLINES + "initial commit" + ARBLINES);
+    }
+
+    @Test
+    public void test62_grepWithEscapes() {
+        i_prelude1();
+        writeFile(WUG, "f.txt");
+        gitletCommand(new String[]{"add", "f.txt"}, "");
+        gitletCommand(new String[]{"commit", "fix bug"}, "");
+        writeFile(NOTWUG, "f.txt");
+        gitletCommand(new String[]{"add", "f.txt"}, "");
+        gitletCommand(new String[]{"commit", "A letter"}, "");
+        String[][] searches = {
+            {"find", "--grep", "fix\\x20bug"},
+            {"find", "--grep", "fix\\x{20}bug"},
+            {"find", "--grep", "\\u0041 letter"},
+            {"find", "--grep", "\\0101 letter"},
+            {"find", "--grep", "\\p{Lu} letter"},
+            {"find", "--grep", "(fix) \\1?bug"},
+        };
+        String[] found = new String[searches.length];
+        for (int i = 0; i < searches.length; i += 1) {
+            runGitletCommand(searches[i]);
+            found[i] = getOutput();
+            assertTrue(found[i], found[i].matches("[a-f0-9]{40}\\s*"));
+        }
+        gitletCommand(new String[]{"repack"}, "");
+        for (int i = 0; i < searches.length; i += 1) {
+            gitletCommand(searches[i], found[i]);
+        }
+    }
+
+    /**
+     * Sets up the repository in test_files/serialized-repo, written by the
+     * first version of Gitlet: branches main and other, merged into main,
+     * with k.txt staged and f.txt staged for removal.
+     */
+    public static void i_serializedRepo() {
+        copyDirectory(SRC.resolve("serialized-repo"), ".gitlet");
+        writeFile(NOTWUG, "g.txt");
+        writeFile(A, "h.txt");
+        writeFile(B, "k.txt");
+    }
+
+    @Test
+    public void test63_convertSerializedRepository() {
+        i_serializedRepo();
+        gitletCommand(new String[]{"status"}, """
+                === Branches ===
+                *main
+                other
+
+                === Staged Files ===
+                k.txt
+
+                === Removed Files ===
+                f.txt
+
+                === Modifications Not Staged For Commit ===
+
+                === Untracked Files ===
+
+                """);
+        assertFileDoesNotExist(".gitlet/repository");
+        assertFileDoesNotExist(".gitlet/staging");
+        gitletCommandP(new String[]{"log"}, """
+                ===
+                ${COMMIT_HEAD}
+                Merged other into main.
+
+                ===
+                ${COMMIT_HEAD}
+                Add g
+
+                ===
+                ${COMMIT_HEAD}
+                Add f
+
+                ===
+                ${COMMIT_HEAD}
+                initial commit
+
+                """.replace("${COMMIT_HEAD}", COMMIT_HEAD));
+        gitletCommand(new String[]{"find", "Add h"},
+                      "de047da00eb1d96cd955643fdc7968eb2e95e457");
+        gitletCommand(new String[]{"commit", "Swap f for k"}, "");
+        gitletCommand(new String[]{"checkout", "other"}, "");
+        assertFileEquals(WUG, "f.txt");
+        assertFileEquals(A, "h.txt");
+        assertFileDoesNotExist("g.txt");
+        assertFileDoesNotExist("k.txt");
+        gitletCommand(new String[]{"checkout", "main"}, "");
+        assertFileDoesNotExist("f.txt");
+        assertFileEquals(NOTWUG, "g.txt");
+        assertFileEquals(B, "k.txt");
+    }
+
+    @Test
+    public void test64_migrateSerializedRepository() {
+        i_serializedRepo();
+        gitletCommand(new String[]{"migrate"}, "");
+        assertFileDoesNotExist(".gitlet/repository");
+        assertFileDoesNotExist(
+                ".gitlet/commits/ed0d83094cfd2e726ade3207be22448fd9fcdbca");
+        assertFileExists(
+                ".gitlet/commits/ed/0d83094cfd2e726ade3207be22448fd9fcdbca");
+        gitletCommand(new String[]{"migrate"}, "");
+        gitletCommandP(new String[]{"global-log"},
+                ARBLINES + "Add h" + ARBLINES);
+        gitletCommand(new String[]{"checkout",
+                "9534dba2f7ea244c34550318149c65be290be013", "--", "f.txt"}, "");
+        assertFileEquals(WUG, "f.txt");
+    }
+
+    @Test
+    public void test65_gcDryRunAndPrune() {
+        i_prelude1();
+        writeFile(WUG, "f.txt");
+        gitletCommand(new String[]{"add", "f.txt"}, "");
+        writeFile(NOTWUG, "f.txt");
+        gitletCommand(new String[]{"add", "f.txt"}, "");
+        gitletCommand(new String[]{"gc", "--dry-run"},
+                      "Would remove 0 objects (0 bytes).");
+        gitletCommand(new String[]{"gc"}, "Removed 0 objects (0 bytes).");
+        gitletCommandP(new String[]{"gc", "--dry-run", "--prune=now"},
+                       "Would remove 1 objects \\(\\d+ bytes\\)\\.\n");
+        gitletCommandP(new String[]{"gc", "--prune=now"},
+                       "Removed 1 objects \\(\\d+ bytes\\)\\.\n");
+        gitletCommand(new String[]{"gc", "--dry-run", "--prune=now"},
+                      "Would remove 0 objects (0 bytes).");
+        gitletCommand(new String[]{"commit", "Add f"}, "");
+        writeFile(WUG, "f.txt");
+        gitletCommand(new String[]{"checkout", "--", "f.txt"}, "");
+        assertFileEquals(NOTWUG, "f.txt");
+    }
+
+    @Test
+    public void test66_gcKeepsCommitsInReflog() {
+        i_prelude1();
+        writeFile(WUG, "f.txt");
+        gitletCommand(new String[]{"add", "f.txt"}, "");
+        gitletCommand(new String[]{"commit", "Add f"}, "");
+        gitletCommand(new String[]{"branch", "b"}, "");
+        gitletCommand(new String[]{"checkout", "b"}, "");
+        writeFile(NOTWUG, "g.txt");
+        gitletCommand(new String[]{"add", "g.txt"}, "");
+        gitletCommand(new String[]{"commit", "Add g"}, "");
+        String id = gitletCommandP(new String[]{"find", "Add g"},
+                                   "([a-f0-9]+)\n").group(1);
+        gitletCommand(new String[]{"checkout", "main"}, "");
+        gitletCommand(new String[]{"gc"}, "Removed 0 objects (0 bytes).");
+        gitletCommand(new String[]{"rm-branch", "b"}, "");
+        gitletCommand(new String[]{"gc"}, "Removed 0 objects (0 bytes).");
+        gitletCommand(new String[]{"checkout", id, "--", "g.txt"}, "");
+        assertFileEquals(NOTWUG, "g.txt");
+        gitletCommandP(new String[]{"gc", "--prune=now"},
+                       "Removed 3 objects \\(\\d+ bytes\\)\\.\n");
+        gitletCommand(new String[]{"checkout", id, "--", "g.txt"},
+                      "No commit with that id exists.");
+        gitletCommand(new String[]{"checkout", "--", "f.txt"}, "");
+        assertFileEquals(WUG, "f.txt");
+    }
+
+    @Test
+    public void test67_autoGcIsSilent() throws IOException {
+        i_prelude1();
+        Files.writeString(Path.of("h.txt"), "This is file 555.\n");
+        gitletCommand(new String[]{"add", "h.txt"}, "");
+        gitletCommand(new String[]{"gc", "--auto"}, "");
+        File sample = new File(".gitlet/objects/17");
+        assertEquals(1, sample.listFiles().length);
+        Files.writeString(Path.of(".gitlet/config"), "gc.auto = 1\n");
+        gitletCommand(new String[]{"commit", "Add h"}, "");
+        File[] loose = sample.listFiles();
+        assertTrue(loose == null || loose.length == 0);
+        gitletCommandP(new String[]{"log"}, """
+                ===
+                ${COMMIT_HEAD}
+                Add h
+
+                ===
+                ${COMMIT_HEAD}
+                initial commit
+
+                """.replace("${COMMIT_HEAD}", COMMIT_HEAD));
+        Files.writeString(Path.of("h.txt"), "changed\n");
+        gitletCommand(new String[]{"checkout", "--", "h.txt"}, "");
+        assertEquals("This is file 555.\n", Files.readString(Path.of("h.txt")));
+    }
+
+    @Test
+    public void test68_statusOfSubdirectories() throws IOException {
+        i_prelude1();
+        Files.createDirectories(Path.of("d", "e"));
+        Files.createDirectories(Path.of("x"));
+        writeFile(WUG, "f.txt");
+        writeFile(NOTWUG, "d/g.txt");
+        writeFile(WUG2, "d/e/h.txt");
+        gitletCommand(new String[]{"add", "f.txt"}, "");
+        gitletCommand(new String[]{"add", "d/g.txt"}, "");
+        gitletCommand(new String[]{"add", "d/e/h.txt"}, "");
+        gitletCommand(new String[]{"commit", "Three files"}, "");
+        writeFile(WUG, "f.txt");
+        writeFile(WUG, "d/g.txt");
+        Files.delete(Path.of("d", "e", "h.txt"));
+        writeFile(WUG3, "d/new.txt");
+        writeFile(WUG3, "x/u.txt");
+        gitletCommand(new String[]{"status"}, """
+                === Branches ===
+                *main
+
+                === Staged Files ===
+
+                === Removed Files ===
+
+                === Modifications Not Staged For Commit ===
+                d/e/h.txt (deleted)
+                d/g.txt (modified)
+
+                === Untracked Files ===
+                d/new.txt
+                x/u.txt
+
+                """);
+        gitletCommand(new String[]{"add", "d/g.txt"}, "");
+        gitletCommand(new String[]{"rm", "d/e/h.txt"}, "");
+        gitletCommand(new String[]{"status"}, """
+                === Branches ===
+                *main
+
+                === Staged Files ===
+                d/g.txt
+
+                === Removed Files ===
+                d/e/h.txt
+
+                === Modifications Not Staged For Commit ===
+
+                === Untracked Files ===
+                d/new.txt
+                x/u.txt
+
+                """);
+    }
+
+    @Test
+    public void test69_commitGraphKeptCurrent() throws IOException {
+        Path base = Path.of(".gitlet", "commit-graph");
+        Path log = Path.of(".gitlet", "commit-graph-log");
+        i_setup1();
+        assertFileDoesNotExist(base.toString());
+        long size = Files.size(log);
+        gitletCommand(new String[]{"commit", "Two files"}, "");
+        assertTrue(Files.size(log) > size);
+        size = Files.size(log);
+        gitletCommand(new String[]{"branch", "b"}, "");
+        gitletCommand(new String[]{"rm", "g.txt"}, "");
+        gitletCommand(new String[]{"commit", "Remove g"}, "");
+        assertTrue(Files.size(log) > size);
+        gitletCommand(new String[]{"repack"}, "");
+        assertEquals(3, commitGraphSize());
+        assertFileDoesNotExist(log.toString());
+        byte[] packed = Files.readAllBytes(base);
+
+        gitletCommand(new String[]{"checkout", "b"}, "");
+        writeFile(WUG2, "h.txt");
+        gitletCommand(new String[]{"add", "h.txt"}, "");
+        gitletCommand(new String[]{"commit", "Add h"}, "");
+        byte[] data = Files.readAllBytes(log);
+        Files.write(log, Arrays.copyOf(data, data.length - 3));
+        gitletCommand(new String[]{"merge", "main"}, "");
+        assertArrayEquals(packed, Files.readAllBytes(base));
+        assertTrue(Files.size(log) >= data.length);
+        assertFileDoesNotExist("g.txt");
+        assertFileEquals(WUG2, "h.txt");
+        writeFile(WUG, "h.txt");
+        gitletCommand(new String[]{"add", "h.txt"}, "");
+        gitletCommand(new String[]{"commit", "Change h"}, "");
+        gitletCommand(new String[]{"checkout", "main"}, "");
+        gitletCommand(new String[]{"merge", "b"},
+                      "Current branch fast-forwarded.");
+        gitletCommand(new String[]{"repack"}, "");
+        assertEquals(6, commitGraphSize());
+    }
+
+    @Test
+    public void test70_abbreviatedCommitIds() throws IOException {
+        i_prelude1();
+        String initial = gitletCommandP(new String[]{"find", "initial commit"},
+                                        "([a-f0-9]+)\n").group(1);
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 17; i += 1) {
+            Files.writeString(Path.of("f.txt"), "Version " + i + "\n");
+            gitletCommand(new String[]{"add", "f.txt"}, "");
+            gitletCommand(new String[]{"commit", "Version " + i}, "");
+            ids.add(gitletCommandP(new String[]{"find", "Version " + i},
+                                   "([a-f0-9]+)\n").group(1));
+        }
+        checkAbbreviatedIds(ids, initial);
+        gitletCommand(new String[]{"repack"}, "");
+        checkAbbreviatedIds(ids, initial);
+        gitletCommand(new String[]{"checkout", "g", "--", "f.txt"},
+                      "No commit with that id exists.");
+    }
+
+    /**
+     * Checks that checking out f.txt from each commit in IDS, whose f.txt
+     * holds "Version " and its position in IDS, finds the commit by each
+     * prefix of up to four characters that no other commit, including the
+     * commit INITIAL, shares, and reports those that others share as
+     * ambiguous.  With more than 16 commits, at least one prefix of one
+     * character is ambiguous.
+     */
+    private static void checkAbbreviatedIds(List<String> ids, String initial)
+        throws IOException {
+        boolean ambiguous = false;
+        for (int i = 0; i < ids.size(); i += 1) {
+            for (int k = 1; k <= 4; k += 1) {
+                String prefix = ids.get(i).substring(0, k);
+                long matches = ids.stream()
+                    .filter(id -> id.startsWith(prefix)).count()
+                    + (initial.startsWith(prefix) ? 1 : 0);
+                if (matches > 1) {
+                    ambiguous = true;
+                    gitletCommand(new String[]{"checkout", prefix, "--",
+                                               "f.txt"},
+                                  "Commit id " + prefix + " is ambiguous.");
+                } else {
+                    gitletCommand(new String[]{"checkout", prefix, "--",
+                                               "f.txt"}, "");
+                    assertEquals("Version " + i + "\n",
+                                 Files.readString(Path.of("f.txt")));
+                }
+            }
+        }
+        assertTrue(ambiguous);
+    }
+
+    @Test
+    public void test71_logsAfterCompaction() throws IOException {
+        i_prelude1();
+        Path index = Path.of(".gitlet", "message-index");
+        Path log = Path.of(".gitlet", "message-log");
+        List<String> messages = new ArrayList<>();
+        messages.add("initial commit");
+        for (int i = 0; i < 3; i += 1) {
+            Files.writeString(Path.of("f.txt"), "Version " + i + "\n");
+            gitletCommand(new String[]{"add", "f.txt"}, "");
+            messages.add("Short " + i);
+            gitletCommand(new String[]{"commit", "Short " + i}, "");
+        }
+        gitletCommand(new String[]{"repack"}, "");
+        assertFileExists(index.toString());
+        assertFileDoesNotExist(log.toString());
+        String filler = " " + "x".repeat(30000);
+        for (int i = 0; Files.exists(log) || i == 0; i += 1) {
+            assertTrue(i < 20);
+            Files.writeString(Path.of("f.txt"), "Long " + i + "\n");
+            gitletCommand(new String[]{"add", "f.txt"}, "");
+            messages.add("Long " + i + filler);
+            gitletCommand(new String[]{"commit", "Long " + i + filler}, "");
+        }
+        for (int i = 0; i < 3; i += 1) {
+            Files.writeString(Path.of("f.txt"), "Late " + i + "\n");
+            gitletCommand(new String[]{"add", "f.txt"}, "");
+            messages.add("Late " + i);
+            gitletCommand(new String[]{"commit", "Late " + i}, "");
+        }
+        assertFileExists(log.toString());
+
+        runGitletCommand(new String[]{"log"});
+        String logOutput = getOutput();
+        Matcher m = Pattern.compile(COMMIT_HEAD + "\n(.*)\n")
+            .matcher(normalizeStdOut(logOutput));
+        List<String> logged = new ArrayList<>();
+        while (m.find()) {
+            logged.add(m.group(m.groupCount()));
+        }
+        List<String> expected = new ArrayList<>(messages);
+        Collections.reverse(expected);
+        assertEquals(expected, logged);
+        runGitletCommand(new String[]{"global-log"});
+        String globalLog = getOutput();
+        m = Pattern.compile(COMMIT_HEAD).matcher(normalizeStdOut(globalLog));
+        List<String> ids = new ArrayList<>();
+        while (m.find()) {
+            ids.add(m.group(1));
+        }
+        List<String> sorted = new ArrayList<>(ids);
+        Collections.sort(sorted);
+        assertEquals(messages.size(), ids.size());
+        assertEquals(sorted, ids);
+
+        Files.delete(index);
+        Files.delete(log);
+        gitletCommand(new String[]{"log"}, logOutput);
+        gitletCommand(new String[]{"global-log"}, globalLog);
+        assertFileDoesNotExist(index.toString());
+        assertFileDoesNotExist(log.toString());
+        gitletCommand(new String[]{"repack"}, "");
+        gitletCommand(new String[]{"log"}, logOutput);
+        gitletCommand(new String[]{"global-log"}, globalLog);
+    }
+
+    @Test
+    public void test72_packBlobMatchingTree() throws IOException {
+        i_prelude1();
+        Path tree;
+        try (Stream<Path> paths = Files.walk(Path.of(".gitlet", "trees"))) {
+            tree = paths.filter(Files::isRegularFile).findFirst().get();
+        }
+        byte[] data;
+        try (InputStream in =
+                 new InflaterInputStream(Files.newInputStream(tree))) {
+            data = in.readAllBytes();
+        }
+        Files.write(Path.of("t.bin"), data);
+        gitletCommand(new String[]{"add", "t.bin"}, "");
+        gitletCommand(new String[]{"commit", "Add a copy of a tree"}, "");
+        gitletCommand(new String[]{"repack"}, "");
+        Files.delete(Path.of("t.bin"));
+        gitletCommand(new String[]{"checkout", "--", "t.bin"}, "");
+        assertArrayEquals(data, Files.readAllBytes(Path.of("t.bin")));
+        gitletCommand(new String[]{"gc", "--prune=now"},
+                      "Removed 0 objects (0 bytes).");
+        Files.delete(Path.of("t.bin"));
+        gitletCommand(new String[]{"checkout", "--", "t.bin"}, "");
+        assertArrayEquals(data, Files.readAllBytes(Path.of("t.bin")));
+    }
+
+    @Test
+    public void test73_recoveryWaitsForLock() throws IOException,
+                                                     InterruptedException {
+        i_setup1();
+        crashingGitletCommand("apply", new String[]{"commit", "Two files"});
+        assertFileExists(".gitlet/journal");
+        try (FileChannel channel =
+                 FileChannel.open(Path.of(".gitlet", "lock"),
+                                  StandardOpenOption.WRITE);
+             FileLock lock = channel.lock()) {
+            runGitletCommand(new String[]{"status"});
+            getOutput();
+            assertFileExists(".gitlet/journal");
+        }
+        Process done = new ProcessBuilder("true").start();
+        done.waitFor();
+        long running = ProcessHandle.current().parent().get().pid();
+        Path live = Path.of(".gitlet", "tmp", "tmp-" + running + "-0");
+        Path dead = Path.of(".gitlet", "tmp", "tmp-" + done.pid() + "-0");
+        Files.write(live, new byte[] { 1 });
+        Files.write(dead, new byte[] { 2 });
+        i_blankStatus();
+        assertFileDoesNotExist(".gitlet/journal");
+        assertFileExists(live.toString());
+        assertFileDoesNotExist(dead.toString());
+        gitletCommandP(new String[]{"log"}, """
+                ===
+                ${COMMIT_HEAD}
+                Two files
+
+                ===
+                ${COMMIT_HEAD}
+                initial commit
+
+                """.replace("${COMMIT_HEAD}", COMMIT_HEAD));
+    }
+
+    @Test
+    public void test74_gcKeepsOrphanedPackedCommits() throws IOException {
+        i_prelude1();
+        writeFile(WUG, "f.txt");
+        gitletCommand(new String[]{"add", "f.txt"}, "");
+        gitletCommand(new String[]{"commit", "Add f"}, "");
+        gitletCommand(new String[]{"branch", "b"}, "");
+        gitletCommand(new String[]{"checkout", "b"}, "");
+        writeFile(NOTWUG, "g.txt");
+        gitletCommand(new String[]{"add", "g.txt"}, "");
+        gitletCommand(new String[]{"commit", "Add g"}, "");
+        String id = gitletCommandP(new String[]{"find", "Add g"},
+                                   "([a-f0-9]+)\n").group(1);
+        gitletCommand(new String[]{"checkout", "main"}, "");
+        gitletCommand(new String[]{"repack"}, "");
+        gitletCommand(new String[]{"rm-branch", "b"}, "");
+        Files.delete(Path.of(".gitlet", "logs", "HEAD"));
+        gitletCommand(new String[]{"gc"}, "Removed 0 objects (0 bytes).");
+        gitletCommand(new String[]{"checkout", id, "--", "g.txt"}, "");
+        assertFileEquals(NOTWUG, "g.txt");
+        gitletCommand(new String[]{"gc"}, "Removed 0 objects (0 bytes).");
+        gitletCommandP(new String[]{"gc", "--prune=now"},
+                       "Removed 3 objects \\(\\d+ bytes\\)\\.\n");
+        gitletCommand(new String[]{"checkout", id, "--", "g.txt"},
+                      "No commit with that id exists.");
+        gitletCommand(new String[]{"checkout", "--", "f.txt"}, "");
+        assertFileEquals(WUG, "f.txt");
+    }
+
+    @Test
+    public void test75_largeFileRoundTrip() throws IOException {
+        i_prelude1();
+        byte[] data = randomBytes(3 << 20, 75);
+        Files.write(Path.of("big.bin"), data);
+        gitletCommand(new String[]{"add", "big.bin"}, "");
+        assertTrue(looseObjectCount() > 8);
+        gitletCommand(new String[]{"commit", "Add big"}, "");
+        Files.write(Path.of("big.bin"), new byte[] { 0 });
+        gitletCommand(new String[]{"checkout", "--", "big.bin"}, "");
+        assertArrayEquals(data, Files.readAllBytes(Path.of("big.bin")));
+        gitletCommand(new String[]{"repack"}, "");
+        assertEquals(0, looseObjectCount());
+        gitletCommand(new String[]{"gc", "--prune=now"},
+                      "Removed 0 objects (0 bytes).");
+        Files.delete(Path.of("big.bin"));
+        gitletCommand(new String[]{"checkout", "--", "big.bin"}, "");
+        assertArrayEquals(data, Files.readAllBytes(Path.of("big.bin")));
+        i_blankStatus();
+    }
+
+    @Test
+    public void test76_smallEditReusesChunks() throws IOException {
+        i_prelude1();
+        byte[] data = randomBytes(3 << 20, 76);
+        Files.write(Path.of("big.bin"), data);
+        gitletCommand(new String[]{"add", "big.bin"}, "");
+        gitletCommand(new String[]{"commit", "Add big"}, "");
+        long chunks = looseObjectCount();
+        assertTrue(chunks > 8);
+        byte[] edited = data.clone();
+        for (int i = 0; i < 100; i += 1) {
+            edited[(3 << 19) + i] ^= 1;
+        }
+        Files.write(Path.of("big.bin"), edited);
+        gitletCommand(new String[]{"add", "big.bin"}, "");
+        gitletCommand(new String[]{"commit", "Edit big"}, "");
+        long added = looseObjectCount() - chunks;
+        assertTrue("Wrote " + added + " new chunks", added >= 1 && added <= 3);
+        String id = gitletCommandP(new String[]{"find", "Add big"},
+                                   "([a-f0-9]+)\n").group(1);
+        gitletCommand(new String[]{"checkout", id, "--", "big.bin"}, "");
+        assertArrayEquals(data, Files.readAllBytes(Path.of("big.bin")));
+        gitletCommand(new String[]{"checkout", "--", "big.bin"}, "");
+        assertArrayEquals(edited, Files.readAllBytes(Path.of("big.bin")));
+    }
+
+    @Test
+    public void test77_failedCheckoutKeepsFile() throws IOException {
+        i_prelude1();
+        writeFile(WUG, "f.txt");
+        gitletCommand(new String[]{"add", "f.txt"}, "");
+        gitletCommand(new String[]{"commit", "Add f"}, "");
+        try (Stream<Path> paths = Files.walk(Path.of(".gitlet", "objects"))) {
+            for (Path p : paths.filter(Files::isRegularFile).toList()) {
+                Files.delete(p);
+            }
+        }
+        writeFile(NOTWUG, "f.txt");
+        try {
+            runGitletCommand(new String[]{"checkout", "--", "f.txt"});
+            fail("Expected checkout of a missing object to fail");
+        } catch (RuntimeException e) {
+            assertTrue(String.valueOf(e.getCause()).contains("no object"));
+        } finally {
+            getOutput();
+        }
+        assertFileEquals(NOTWUG, "f.txt");
+        assertFileDoesNotExist(".f.txt.tmp");
+    }
+
+    @Test
+    public void test78_addNameWithGlobCharacters() {
+        i_prelude1();
+        writeFile(WUG, "notes[1].txt");
+        writeFile(NOTWUG, "notes1.txt");
+        gitletCommand(new String[]{"add", "notes[1].txt"}, "");
+        gitletCommand(new String[]{"status"}, """
+                === Branches ===
+                *main
+
+                === Staged Files ===
+                notes[1].txt
+
+                === Removed Files ===
+
+                === Modifications Not Staged For Commit ===
+
+                === Untracked Files ===
+                notes1.txt
+
+                """);
+        gitletCommand(new String[]{"add", "notes[0-9].txt"}, "");
+        gitletCommand(new String[]{"status"}, """
+                === Branches ===
+                *main
+
+                === Staged Files ===
+                notes1.txt
+                notes[1].txt
+
+                === Removed Files ===
+
+                === Modifications Not Staged For Commit ===
+
+                === Untracked Files ===
+
+                """);
+    }
+
+    @Test
+    public void test79_readsAcrossDictionaries() throws IOException {
+        i_setup1();
+        gitletCommand(new String[]{"commit", "Two files"}, "");
+        writeFile(WUG2, "h.txt");
+        gitletCommand(new String[]{"add", "h.txt"}, "");
+        gitletCommand(new String[]{"commit", "Add h"}, "");
+        gitletCommand(new String[]{"train-dictionary"}, "");
+        String current = Files.readString(
+            Path.of(".gitlet", "dictionaries", "current")).trim();
+        assertFileExists(".gitlet/dictionaries/" + current);
+        writeFile(WUG3, "k.txt");
+        gitletCommand(new String[]{"add", "k.txt"}, "");
+        gitletCommand(new String[]{"commit", "Add k"}, "");
+        String id = gitletCommandP(new String[]{"find", "Add k"},
+                                   "([a-f0-9]+)\n").group(1);
+        byte[] stored = Files.readAllBytes(
+            Path.of(".gitlet", "commits", id.substring(0, 2), id.substring(2)));
+        assertTrue("Commit not compressed with the dictionary",
+                   (stored[1] & 0x20) != 0);
+        gitletCommandP(new String[]{"log"}, """
+                ===
+                ${COMMIT_HEAD}
+                Add k
+
+                ===
+                ${COMMIT_HEAD}
+                Add h
+
+                ===
+                ${COMMIT_HEAD}
+                Two files
+
+                ===
+                ${COMMIT_HEAD}
+                initial commit
+
+                """.replace("${COMMIT_HEAD}", COMMIT_HEAD));
+        gitletCommand(new String[]{"checkout", "main"},
+                      "No need to checkout the current branch.");
+        Files.delete(Path.of("f.txt"));
+        Files.delete(Path.of("k.txt"));
+        gitletCommand(new String[]{"checkout", id, "--", "k.txt"}, "");
+        gitletCommand(new String[]{"checkout", "--", "f.txt"}, "");
+        assertFileEquals(WUG3, "k.txt");
+        assertFileEquals(WUG, "f.txt");
+    }
+
+    @Test
+    public void test80_missingDictionary() throws IOException {
+        i_setup1();
+        gitletCommand(new String[]{"commit", "Two files"}, "");
+        gitletCommand(new String[]{"train-dictionary"}, "");
+        writeFile(WUG2, "h.txt");
+        gitletCommand(new String[]{"add", "h.txt"}, "");
+        gitletCommand(new String[]{"commit", "Add h"}, "");
+        String current = Files.readString(
+            Path.of(".gitlet", "dictionaries", "current")).trim();
+        String id = gitletCommandP(new String[]{"find", "Add h"},
+                                   "([a-f0-9]+)\n").group(1);
+        Files.delete(Path.of(".gitlet", "dictionaries", current));
+        String missing = String.format("Missing compression dictionary %08x.",
+                                       Integer.parseUnsignedInt(current, 16));
+        try {
+            runGitletCommand(new String[]{"checkout", id, "--", "h.txt"});
+            fail("Expected a read needing a missing dictionary to fail");
+        } catch (RuntimeException e) {
+            assertEquals(missing, e.getCause().getMessage());
+        } finally {
+            getOutput();
+        }
+    }
+
+    @Test
+    public void test81_binaryFileRoundTrip() throws IOException {
+        i_prelude1();
+        byte[] data = new byte[4096];
+        for (int i = 0; i < data.length; i += 1) {
+            data[i] = (byte) (i * 7);
+        }
+        data[0] = 0;
+        data[1] = (byte) 0xc3;
+        data[2] = (byte) 0x28;
+        data[3] = (byte) 0xff;
+        data[data.length - 1] = 0;
+        Files.write(Path.of("b.bin"), data);
+        gitletCommand(new String[]{"add", "b.bin"}, "");
+        gitletCommand(new String[]{"commit", "Add b"}, "");
+        byte[] changed = data.clone();
+        changed[100] = 0;
+        changed[101] = (byte) 0xfe;
+        Files.write(Path.of("b.bin"), changed);
+        gitletCommand(new String[]{"add", "b.bin"}, "");
+        gitletCommand(new String[]{"commit", "Change b"}, "");
+        String id = gitletCommandP(new String[]{"find", "Add b"},
+                                   "([a-f0-9]+)\n").group(1);
+        gitletCommand(new String[]{"checkout", id, "--", "b.bin"}, "");
+        assertArrayEquals(data, Files.readAllBytes(Path.of("b.bin")));
+        gitletCommand(new String[]{"checkout", "--", "b.bin"}, "");
+        assertArrayEquals(changed, Files.readAllBytes(Path.of("b.bin")));
+        i_blankStatus();
+    }
 }
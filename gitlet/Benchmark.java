@@ -0,0 +1,504 @@
+package gitlet;
+
+import com.sun.management.ThreadMXBean;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Formatter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/** Measures how long Gitlet takes to decode commits and compute IDs.
+ *  Usage: java gitlet.Benchmark [COMMITS [FILES]], where COMMITS is the
+ *  number of commits decoded per round and FILES the number of files
+ *  each tracks.  Reports the mean time to decode one commit and its list
+ *  of files from the Java serialization of the first version of Gitlet
+ *  and from Gitlet's binary commit and tree formats.
+ *
+ *  Usage: java gitlet.Benchmark hash [COUNT], where COUNT is the number
+ *  of IDs computed per round.  Reports the mean time and heap allocated
+ *  to hash a short string and a 64 KiB array, with the Formatter-based
+ *  sha1 Gitlet used to have, with Utils.sha1, and with a Hasher for each
+ *  object format.
+ *
+ *  Usage: java gitlet.Benchmark graph [COMMITS], where COMMITS is the
+ *  length of a synthetic history with a merge every MERGE_INTERVAL
+ *  commits.  Reports the time to build, write and read its commit graph
+ *  and to find the merge base of its tip and a branch forked near its
+ *  root.
+ *
+ *  Usage: java gitlet.Benchmark messages [COMMITS], where COMMITS is the
+ *  number of commits in a synthetic message index.  Reports the time to
+ *  build it, to find an exact message and the matches for regular
+ *  expressions with and without literal text, and to format the
+ *  global-log and the log of its newest commit into a discarding
+ *  writer.
+ *
+ *  Usage: java gitlet.Benchmark cache [COMMITS], where COMMITS is the
+ *  length of a synthetic linear history.  Reports the time to walk it
+ *  from its tip, decoding each commit every time and through ObjectCaches
+ *  with room for all of it and for a tenth of it, as measured by the
+ *  total weight of its commits, with the hits, rescues from spilled
+ *  values, and misses of each cache.
+ *  @author
+ */
+public class Benchmark {
+
+    /** Default number of commits decoded per round. */
+    private static final int COMMITS = 2000;
+    /** Default number of files tracked by each commit. */
+    private static final int FILES = 20;
+    /** Number of rounds run before timing, to warm up the JIT. */
+    private static final int WARMUP_ROUNDS = 5;
+    /** Number of rounds timed. */
+    private static final int ROUNDS = 10;
+    /** Default number of IDs computed per round by the hash benchmark. */
+    private static final int HASHES = 20000;
+    /** Size of the arrays hashed by the hash benchmark. */
+    private static final int HASHED_SIZE = 64 << 10;
+    /** Default length of the history used by the graph benchmark. */
+    private static final int HISTORY = 100000;
+    /** Number of commits between merges in the graph benchmark. */
+    private static final int MERGE_INTERVAL = 100;
+    /** Default length of the history walked by the cache benchmark. */
+    private static final int CACHED_HISTORY = 100000;
+    /** Default number of commits in the message index benchmark. */
+    private static final int MESSAGES = 1000000;
+    /** Words from which the messages of the message index benchmark are
+     *  made. */
+    private static final String WORDS = "fix add remove update parser "
+        + "merge test refactor cache index commit tree blob branch status "
+        + "typo docs build release bump";
+
+    public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("hash")) {
+            hashing(args.length > 1 ? Integer.parseInt(args[1]) : HASHES);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("messages")) {
+            messages(args.length > 1 ? Integer.parseInt(args[1]) : MESSAGES);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("cache")) {
+            caching(args.length > 1 ? Integer.parseInt(args[1])
+                    : CACHED_HISTORY);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("graph")) {
+            graph(args.length > 1 ? Integer.parseInt(args[1]) : HISTORY);
+            return;
+        }
+        int commits = args.length > 0 ? Integer.parseInt(args[0]) : COMMITS;
+        int files = args.length > 1 ? Integer.parseInt(args[1]) : FILES;
+
+        List<byte[][]> serialized = new ArrayList<>();
+        List<byte[][]> encoded = new ArrayList<>();
+        String parent = Utils.sha1("root");
+        for (int i = 0; i < commits; i += 1) {
+            Tree tree = new Tree();
+            for (int f = 0; f < files; f += 1) {
+                tree.putBlob("file" + f + ".txt", Utils.sha1(i + "/" + f));
+            }
+            byte[] treeData = tree.encode();
+            Commit commit = new Commit("commit number " + i,
+                                       new String[] { parent },
+                                       Utils.sha1((Object) treeData));
+            serialized.add(new byte[][] {
+                Utils.serialize(savedCommit(commit, tree))
+            });
+            encoded.add(new byte[][] { commit.encode(), treeData });
+            parent = commit.getcommitID();
+        }
+
+        System.out.printf("%d commits tracking %d files each%n", commits, files);
+        report("java serialization", serialized, data -> SerializedRepository
+               .read(data[0], SerializedRepository.SavedCommit.class)
+               .blobMap.size());
+        report("binary codec", encoded, data -> {
+            Commit.decode(data[0]);
+            return Tree.decode(data[1]).blobs().size();
+        });
+    }
+
+    /** Returns COMMIT, whose files are those of TREE, as the first version
+     *  of Gitlet serialized it, but without its parents and with empty
+     *  files. */
+    private static SerializedRepository.SavedCommit savedCommit(Commit commit,
+                                                                Tree tree) {
+        SerializedRepository.SavedCommit result =
+            new SerializedRepository.SavedCommit();
+        result.message = commit.getMessage();
+        result.date = commit.getCommitTime();
+        result.id = commit.getcommitID();
+        result.blobMap = new HashMap<>();
+        for (Map.Entry<String, String> e : tree.blobs().entrySet()) {
+            SerializedRepository.SavedBlob blob =
+                new SerializedRepository.SavedBlob();
+            blob.name = e.getKey();
+            blob.stringContents = "";
+            blob.blobid = e.getValue();
+            result.blobMap.put(blob.name, blob);
+        }
+        return result;
+    }
+
+    /** Decodes each of COMMITS, each the records holding a commit and its
+     *  list of files, repeatedly with DECODER, which returns the number of
+     *  files, and prints LABEL with the mean decode time and encoded size
+     *  per commit. */
+    private static void report(String label, List<byte[][]> commits,
+                               Function<byte[][], Integer> decoder) {
+        long size = 0;
+        for (byte[][] records : commits) {
+            for (byte[] data : records) {
+                size += data.length;
+            }
+        }
+        for (int r = 0; r < WARMUP_ROUNDS; r += 1) {
+            decodeAll(commits, decoder);
+        }
+        long start = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r += 1) {
+            decodeAll(commits, decoder);
+        }
+        double perCommit = (double) (System.nanoTime() - start)
+            / ROUNDS / commits.size();
+        System.out.printf("%-20s %10.0f ns/commit %8d bytes/commit%n",
+                          label, perCommit, size / commits.size());
+    }
+
+    /** Reports the cost of hashing COUNT strings like those hashed to make
+     *  commit IDs, and COUNT / 64 arrays of HASHED_SIZE bytes, in each of
+     *  the available ways. */
+    private static void hashing(int count) {
+        List<String> strings = new ArrayList<>();
+        for (int i = 0; i < count; i += 1) {
+            strings.add("commit message number " + i + "18-10-2026 11:16:29"
+                        + Utils.sha1("parent " + i));
+        }
+        List<byte[]> arrays = new ArrayList<>();
+        Random random = new Random(count);
+        for (int i = 0; i < Math.max(1, count / 64); i += 1) {
+            byte[] data = new byte[HASHED_SIZE];
+            random.nextBytes(data);
+            arrays.add(data);
+        }
+        Hasher sha1 = new Hasher(Hasher.SHA1);
+        Hasher sha256 = new Hasher(Hasher.SHA256);
+
+        System.out.printf("%d strings, %d arrays of %d bytes%n", strings.size(),
+                          arrays.size(), HASHED_SIZE);
+        time("formatter sha1 string", strings, s -> formatterSha1(s));
+        time("Utils.sha1 string", strings, s -> Utils.sha1(s));
+        time("Hasher sha1 string", strings, sha1::hash);
+        time("Hasher sha256 string", strings, sha256::hash);
+        time("formatter sha1 array", arrays, a -> formatterSha1(a));
+        time("Utils.sha1 array", arrays, a -> Utils.sha1(a));
+        time("Hasher sha1 array", arrays, sha1::hash);
+        time("Hasher sha256 array", arrays, sha256::hash);
+    }
+
+    /** Reports the cost of building, writing and reading the commit graph
+     *  of a history of COUNT commits, and of ancestry queries on it. */
+    private static void graph(int count) {
+        HashMap<String, Commit> commits = new HashMap<>();
+        Commit root = new Commit("initial commit", Utils.sha1("tree"));
+        commits.put(root.getcommitID(), root);
+        String tip = root.getcommitID();
+        String side = null;
+        String fork = null;
+        for (int i = 1; i < count; i += 1) {
+            String[] parents = i % MERGE_INTERVAL == 0 && side != null
+                ? new String[] { tip, side } : new String[] { tip };
+            Commit commit = new Commit("commit " + i, parents,
+                                       Utils.sha1("tree " + i));
+            commits.put(commit.getcommitID(), commit);
+            tip = commit.getcommitID();
+            if (i % MERGE_INTERVAL == MERGE_INTERVAL / 2) {
+                Commit branch = new Commit("side " + i, new String[] { tip },
+                                           Utils.sha1("side tree " + i));
+                commits.put(branch.getcommitID(), branch);
+                side = branch.getcommitID();
+                if (fork == null) {
+                    fork = side;
+                }
+            }
+        }
+
+        long start = System.nanoTime();
+        CommitGraph built = new CommitGraph(commits::get);
+        built.position(tip);
+        System.out.printf("%d commits%n%-24s %10.1f ms%n", built.size(),
+                          "build from commits", millisSince(start));
+        File file;
+        try {
+            file = File.createTempFile("commit-graph", null);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        file.deleteOnExit();
+        start = System.nanoTime();
+        Utils.writeContents(file, (Object) built.encode());
+        System.out.printf("%-24s %10.1f ms %8d bytes%n", "write",
+                          millisSince(start), file.length());
+        start = System.nanoTime();
+        CommitGraph graph = new CommitGraph(file, commits::get);
+        System.out.printf("%-24s %10.1f ms%n", "read", millisSince(start));
+
+        timeMergeBase("merge base, early fork", file, commits, tip, fork);
+        timeMergeBase("merge base, recent fork", file, commits, tip, side);
+        int a = graph.position(tip);
+        int r = graph.position(root.getcommitID());
+        for (int i = 0; i < WARMUP_ROUNDS; i += 1) {
+            graph.isAncestor(r, a);
+        }
+        start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i += 1) {
+            graph.isAncestor(r, a);
+        }
+        System.out.printf("%-24s %10.2f ms%n", "root is ancestor",
+                          millisSince(start) / ROUNDS);
+    }
+
+    /** Prints LABEL with the mean time to find the merge bases of the
+     *  commits with IDs A and B in the graph stored in FILE, whose commits
+     *  are COMMITS, the first time they are asked for. */
+    private static void timeMergeBase(String label, File file,
+                                      HashMap<String, Commit> commits,
+                                      String a, String b) {
+        double total = 0;
+        int bases = 0;
+        for (int i = 0; i < WARMUP_ROUNDS + ROUNDS; i += 1) {
+            CommitGraph graph = new CommitGraph(file, commits::get);
+            int x = graph.position(a);
+            int y = graph.position(b);
+            long start = System.nanoTime();
+            bases = graph.mergeBases(x, y).length;
+            if (i >= WARMUP_ROUNDS) {
+                total += millisSince(start);
+            }
+        }
+        System.out.printf("%-24s %10.3f ms %8d bases%n", label,
+                          total / ROUNDS, bases);
+    }
+
+    /** Reports the cost of walking a linear history of COUNT commits with
+     *  and without caching the decoded commits. */
+    private static void caching(int count) {
+        HashMap<String, byte[]> encoded = new HashMap<>();
+        Commit root = new Commit("initial commit", Utils.sha1("tree"));
+        encoded.put(root.getcommitID(), root.encode());
+        String tip = root.getcommitID();
+        for (int i = 1; i < count; i += 1) {
+            Commit commit = new Commit("commit " + i, new String[] { tip },
+                                       Utils.sha1("tree " + i));
+            encoded.put(commit.getcommitID(), commit.encode());
+            tip = commit.getcommitID();
+        }
+        System.out.printf("%d commits%n", count);
+        System.out.printf("%-24s %10.1f ms/walk%n", "decode every time",
+                          timeWalk(tip, id -> Commit.decode(encoded.get(id))));
+        long[] history = new long[1];
+        timeWalk(tip, id -> {
+            Commit commit = Commit.decode(encoded.get(id));
+            history[0] += commit.weight();
+            return commit;
+        });
+        history[0] /= WARMUP_ROUNDS + ROUNDS;
+        timeCachedWalk("cache of all", history[0], encoded, tip);
+        timeCachedWalk("cache of a tenth", history[0] / 10, encoded, tip);
+    }
+
+    /** Prints LABEL with the mean time to walk the history whose
+     *  encoded commits are ENCODED, by ID, from TIP through an ObjectCache
+     *  of CAPACITY bytes, and the hits, rescues from the spilled values,
+     *  and misses of the cache. */
+    private static void timeCachedWalk(String label, long capacity,
+                                       HashMap<String, byte[]> encoded,
+                                       String tip) {
+        ObjectCache<String, Commit> cache =
+            new ObjectCache<>(capacity, Commit::weight);
+        double millis = timeWalk(tip, id -> {
+            Commit commit = cache.get(id);
+            if (commit == null) {
+                commit = Commit.decode(encoded.get(id));
+                cache.put(id, commit);
+            }
+            return commit;
+        });
+        System.out.printf("%-24s %10.1f ms/walk %9d hits %9d rescues "
+                          + "%9d misses%n", label, millis, cache.hits(),
+                          cache.rescues(), cache.misses());
+    }
+
+    /** Returns the mean time in milliseconds to walk from the commit with
+     *  ID TIP through its parents to the initial commit, reading commits
+     *  with LOOKUP. */
+    private static double timeWalk(String tip,
+                                   Function<String, Commit> lookup) {
+        long start = 0;
+        for (int r = 0; r < WARMUP_ROUNDS + ROUNDS; r += 1) {
+            if (r == WARMUP_ROUNDS) {
+                start = System.nanoTime();
+            }
+            for (Commit commit = lookup.apply(tip);
+                 commit.getParent() != null;
+                 commit = lookup.apply(commit.getParent()[0])) {
+                continue;
+            }
+        }
+        return millisSince(start) / ROUNDS;
+    }
+
+    /** Reports the cost of building a message index of COUNT commits and
+     *  of looking up messages in it. */
+    private static void messages(int count) {
+        String[] words = WORDS.split(" ");
+        Random random = new Random(count);
+        TreeMap<String, MessageIndex.Entry> entries = new TreeMap<>();
+        String[] none = new String[0];
+        for (int i = 0; i < count; i += 1) {
+            StringBuilder message = new StringBuilder();
+            for (int w = 3 + random.nextInt(5); w > 0; w -= 1) {
+                message.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            message.append("#").append(i);
+            String id = Utils.sha1("commit " + i);
+            String[] parents =
+                i == 0 ? none : new String[] { Utils.sha1("commit " + (i - 1)) };
+            entries.put(id, new MessageIndex.Entry(id, 1000L * i, parents,
+                                                   message.toString()));
+        }
+        File file;
+        try {
+            file = File.createTempFile("message-index", null);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        file.deleteOnExit();
+        File log = new File(file.getPath() + ".log");
+
+        long start = System.nanoTime();
+        Utils.writeContents(file, (Object) MessageIndex.encode(entries));
+        System.out.printf("%d commits%n%-24s %10.1f ms %8d bytes%n", count,
+                          "build", millisSince(start), file.length());
+        String exact = entries.get(Utils.sha1("commit " + count / 2)).message;
+        timeLookup("exact message", file, log,
+                   index -> index.withMessage(exact).size());
+        timeLookup("grep '#" + count / 3 + "$'", file, log,
+                   index -> index.matching(Pattern.compile("#" + count / 3 + "$"))
+                   .size());
+        timeLookup("grep 'parser cache'", file, log,
+                   index -> index.matching(Pattern.compile("parser cache"))
+                   .size());
+        timeLookup("grep '^t.*s #1$'", file, log,
+                   index -> index.matching(Pattern.compile("^t.*s #1$")).size());
+        timeLookup("global-log", file, log,
+                   index -> Repository.printLog(index::forEach,
+                                                Writer.nullWriter()));
+        String newest = Utils.sha1("commit " + (count - 1));
+        timeLookup("log", file, log,
+                   index -> Repository.printLog(
+                       visitor -> index.walk(newest, visitor),
+                       Writer.nullWriter()));
+    }
+
+    /** Prints LABEL with the mean time for LOOKUP to search a message index
+     *  kept in FILE and LOG, opened afresh for each search, and the number
+     *  of commits found. */
+    private static void timeLookup(String label, File file, File log,
+                                   Function<MessageIndex, Integer> lookup) {
+        double total = 0;
+        int found = 0;
+        for (int i = 0; i < WARMUP_ROUNDS + ROUNDS; i += 1) {
+            long start = System.nanoTime();
+            found = lookup.apply(new MessageIndex(file, log));
+            if (i >= WARMUP_ROUNDS) {
+                total += millisSince(start);
+            }
+        }
+        System.out.printf("%-24s %10.2f ms %8d found%n", label, total / ROUNDS,
+                          found);
+    }
+
+    /** Returns the number of milliseconds since the time START, as given
+     *  by System.nanoTime. */
+    private static double millisSince(long start) {
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    /** Hashes each of INPUTS with HASH repeatedly and prints LABEL with the
+     *  mean time and heap allocated per hash. */
+    private static <T> void time(String label, List<T> inputs,
+                                 Function<T, String> hash) {
+        for (int r = 0; r < WARMUP_ROUNDS; r += 1) {
+            hashAll(inputs, hash);
+        }
+        ThreadMXBean threads =
+            (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long allocated = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r += 1) {
+            hashAll(inputs, hash);
+        }
+        long hashes = (long) ROUNDS * inputs.size();
+        double perHash = (double) (System.nanoTime() - start) / hashes;
+        allocated = threads.getCurrentThreadAllocatedBytes() - allocated;
+        System.out.printf("%-24s %10.0f ns/hash %8d bytes/hash%n", label,
+                          perHash, allocated / hashes);
+    }
+
+    /** Hashes every member of INPUTS with HASH and returns the number of
+     *  IDs starting with '0', so that the work cannot be optimized away. */
+    private static <T> int hashAll(List<T> inputs, Function<T, String> hash) {
+        int zeros = 0;
+        for (T input : inputs) {
+            if (hash.apply(input).charAt(0) == '0') {
+                zeros += 1;
+            }
+        }
+        return zeros;
+    }
+
+    /** Returns the SHA-1 hash of VAL, a String or byte array, as Gitlet
+     *  used to compute it: with a new digest for each call, and formatting
+     *  each byte of the result through a Formatter. */
+    private static String formatterSha1(Object val) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            if (val instanceof byte[]) {
+                md.update((byte[]) val);
+            } else {
+                md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+            }
+            Formatter result = new Formatter();
+            for (byte b : md.digest()) {
+                result.format("%02x", b);
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Decodes every commit in COMMITS with DECODER and returns the number
+     *  of files they track, so that the work cannot be optimized away. */
+    private static int decodeAll(List<byte[][]> commits,
+                                 Function<byte[][], Integer> decoder) {
+        int tracked = 0;
+        for (byte[][] data : commits) {
+            tracked += decoder.apply(data);
+        }
+        return tracked;
+    }
+}
@@ -1,44 +1,25 @@
 package gitlet;
 
-import java.io.*;
+import java.io.File;
 
 
-public class Blob implements Serializable {
-
-    private byte[] byteContents;
-
-    private String stringContents;
-
-    private String name;
+/** The contents of one version of a file.  A Blob is identified by the
+ *  SHA-1 hash of its contents alone, so identical contents share one ID
+ *  (and one copy in the object store) whatever file they came from.
+ *  Contents are treated as raw bytes and are never held in memory as a
+ *  whole; large contents are stored in shared chunks (see BlobStore).
+ */
+public class Blob {
 
     private String blobid;
 
 
 
-
-
-    public Blob() {
-
-    }
-
-    public Blob(File file, String name) {
-        this.name = name;
-        stringContents = Utils.readContentsAsString(file);
-        blobid = generateID();
-
-    }
-
-    private String generateID() {
-        return Utils.sha1(name + stringContents);
-
-    }
-
-    public String getName() {
-        return name;
-    }
-
-    public String getStrContents() {
-        return stringContents;
+    /** Adds the contents of FILE to STORE as a blob.  FILE is read once,
+     *  in pieces that are hashed and compressed together, so the memory
+     *  used does not depend on the size of FILE. */
+    Blob(File file, BlobStore store) {
+        blobid = store.write(file);
     }
 
 
@@ -48,22 +29,4 @@ public class Blob implements Serializable {
     }
 
 
-    @Override
-    public boolean equals(Object o) {
-
-        if (!(o instanceof Blob)) {
-            return false;
-        }
-
-        Blob other = (Blob) o;
-
-        return other.name.equals(name)
-                && other.blobid.equals(blobid)
-                && other.stringContents.equals(stringContents);
-
-
-    }
-
-
-
 }
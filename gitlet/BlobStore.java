@@ -0,0 +1,236 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/** The contents of the blobs of a repository.  A blob is identified by
+ *  the hash of its whole contents however it is stored.  Files
+ *  smaller than the chunking threshold are stored whole, as one object.
+ *  Larger files are cut into content-defined chunks by a Chunker, each
+ *  chunk is stored as an object of its own (identified by its own hash,
+ *  so that chunks are shared by all the files and versions that contain
+ *  them), and the blob is stored as a manifest listing its chunks.  An
+ *  edit to part of a large file therefore adds only the chunks around
+ *  the edit, and only those are compressed and written.
+ *
+ *  Whole blobs and chunks are kept in one ObjectStore and manifests in
+ *  another.  A manifest is a Codec record holding the size of the blob
+ *  and the number of chunks, followed by the raw ID and length of each
+ *  chunk in order.
+ *  @author
+ */
+class BlobStore {
+
+    /** Kind byte of an encoded manifest. */
+    private static final int MANIFEST_KIND = 'M';
+    /** Version of the manifest encoding. */
+    private static final int MANIFEST_VERSION = 1;
+    /** Setting giving the size of the smallest file stored in chunks. */
+    static final String THRESHOLD_SETTING = "chunk.threshold";
+    /** Default value of THRESHOLD_SETTING. */
+    private static final long DEFAULT_THRESHOLD = 1 << 20;
+
+    /** The store of whole blobs and chunks. */
+    private final ObjectStore objects;
+    /** The store of manifests of chunked blobs, by blob ID. */
+    private final ObjectStore manifests;
+    /** Size of the smallest file stored in chunks. */
+    private final long threshold;
+    /** Finds chunk boundaries. */
+    private final Chunker chunker = new Chunker();
+    /** Computes blob and chunk IDs. */
+    private final Hasher hasher;
+
+    /** A store keeping whole blobs and chunks in OBJECTS and manifests in
+     *  MANIFESTS, identifying them with HASHER and chunking files as set by
+     *  CONFIG. */
+    BlobStore(ObjectStore objects, ObjectStore manifests, Hasher hasher,
+              Config config) {
+        this.objects = objects;
+        this.manifests = manifests;
+        this.hasher = hasher;
+        this.threshold = config.getSize(THRESHOLD_SETTING, DEFAULT_THRESHOLD);
+    }
+
+    /** Adds the contents of FILE as a blob, unless it is already present,
+     *  and returns its ID. */
+    String write(File file) {
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            return write(in, file.length());
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read %s: %s", file, excp.getMessage());
+        }
+    }
+
+    /** Adds CONTENTS as a blob, unless it is already present, and returns
+     *  its ID. */
+    String write(byte[] contents) {
+        try {
+            return write(new ByteArrayInputStream(contents), contents.length);
+        } catch (IOException excp) {
+            throw Utils.error("Internal error storing blob.");
+        }
+    }
+
+    /** Adds the SIZE bytes remaining in IN as a blob, unless it is already
+     *  present, and returns its ID. */
+    private String write(InputStream in, long size) throws IOException {
+        if (size < threshold) {
+            return objects.writeHashed(in, hasher.newDigest());
+        }
+        return writeChunked(in);
+    }
+
+    /** Returns true iff the blob with the given ID is present. */
+    boolean contains(String id) {
+        return manifests.contains(id) || objects.contains(id);
+    }
+
+    /** Writes the contents of the blob with the given ID to FILE, creating
+     *  or replacing it as needed.  A chunked blob is written one chunk at
+     *  a time, into a temporary file as for ObjectStore.replaceFile. */
+    void copyTo(String id, File file) {
+        if (!manifests.contains(id)) {
+            objects.copyTo(id, file);
+            return;
+        }
+        List<String> chunks = chunks(id);
+        ObjectStore.replaceFile(file, channel -> {
+            OutputStream out =
+                new BufferedOutputStream(Channels.newOutputStream(channel));
+            for (String chunk : chunks) {
+                objects.copyTo(chunk, out);
+            }
+            out.flush();
+        });
+    }
+
+    /** Writes the contents of the blob with the given ID to OUT. */
+    void copyTo(String id, OutputStream out) throws IOException {
+        List<String> chunks = chunks(id);
+        if (chunks == null) {
+            objects.copyTo(id, out);
+            return;
+        }
+        for (String chunk : chunks) {
+            objects.copyTo(chunk, out);
+        }
+    }
+
+    /** Returns the IDs of the chunks of the blob with the given ID, in
+     *  order, or null if it is stored whole. */
+    List<String> chunks(String id) {
+        if (!manifests.contains(id)) {
+            return null;
+        }
+        ByteBuffer in = Codec.open(manifests.read(id), MANIFEST_KIND);
+        in.getLong();
+        List<String> result = new ArrayList<>();
+        for (int n = in.getInt(); n > 0; n -= 1) {
+            result.add(Codec.readHash(in));
+            in.getInt();
+        }
+        return result;
+    }
+
+    /** Moves the loose blobs, chunks and manifests whose IDs satisfy
+     *  INCLUDE into the pack, as for ObjectStore.repack. */
+    int repack(Map<String, String> names, Predicate<String> include) {
+        return objects.repack(names, include)
+            + manifests.repack(names, include);
+    }
+
+    /** Writes the packed objects not in LIVE out as loose objects, as for
+     *  ObjectStore.loosen. */
+    int loosen(Set<String> live) {
+        return objects.loosen(live) + manifests.loosen(live);
+    }
+
+    /** Returns the files of the loose objects not in LIVE, as for
+     *  ObjectStore.garbage. */
+    List<File> garbage(Set<String> live, long cutoff) {
+        List<File> result = objects.garbage(live, cutoff);
+        result.addAll(manifests.garbage(live, cutoff));
+        return result;
+    }
+
+    /** Returns an estimate of the number of loose objects. */
+    int estimateLooseCount() {
+        return objects.estimateLooseCount() + manifests.estimateLooseCount();
+    }
+
+    /** Moves objects stored in the flat layout of older repositories into
+     *  their fan-out subdirectories, returning the number moved. */
+    int migrate() {
+        return objects.migrate();
+    }
+
+    /** Stores the remaining contents of IN in chunks, with a manifest
+     *  listing them, and returns the blob ID.  IN is read once, a buffer
+     *  of at most Chunker.MAX_SIZE bytes at a time; chunks already in the
+     *  store are hashed but not compressed or written again. */
+    private String writeChunked(InputStream in) throws IOException {
+        MessageDigest whole = hasher.newDigest();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream manifest = new DataOutputStream(bytes);
+        byte[] buffer = new byte[Chunker.MAX_SIZE];
+        int len = 0;
+        long size = 0;
+        int count = 0;
+        boolean eof = false;
+        while (true) {
+            while (!eof && len < buffer.length) {
+                int n = in.read(buffer, len, buffer.length - len);
+                if (n < 0) {
+                    eof = true;
+                } else {
+                    len += n;
+                }
+            }
+            if (len == 0) {
+                break;
+            }
+            int cut = chunker.cut(buffer, len);
+            whole.update(buffer, 0, cut);
+            String chunkID = hasher.hash(ByteBuffer.wrap(buffer, 0, cut));
+            if (!objects.contains(chunkID)) {
+                objects.write(chunkID, Arrays.copyOf(buffer, cut));
+            }
+            Codec.writeHash(manifest, chunkID);
+            manifest.writeInt(cut);
+            size += cut;
+            count += 1;
+            System.arraycopy(buffer, cut, buffer, 0, len - cut);
+            len -= cut;
+        }
+
+        String id = Hasher.finish(whole);
+        if (!contains(id)) {
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+            DataOutputStream out =
+                Codec.start(record, MANIFEST_KIND, MANIFEST_VERSION);
+            out.writeLong(size);
+            out.writeInt(count);
+            bytes.writeTo(out);
+            out.flush();
+            manifests.write(id, record.toByteArray());
+        }
+        return id;
+    }
+}
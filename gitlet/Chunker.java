@@ -0,0 +1,76 @@
+package gitlet;
+
+/** Finds content-defined chunk boundaries in a stream of bytes, in the
+ *  manner of FastCDC.  A rolling "gear" hash is updated with each byte,
+ *  and a chunk ends where the hash has a given number of zero bits.
+ *  Since a boundary depends only on the bytes just before it, an edit to
+ *  one region of a file moves only the boundaries near it, and the
+ *  chunks elsewhere come out the same as before.
+ *
+ *  Chunks are between MIN_SIZE and MAX_SIZE bytes long.  Chunk sizes are
+ *  normalized around AVERAGE_SIZE: before that point a boundary needs
+ *  more zero bits than after it, which makes very small and very large
+ *  chunks rare.  The bits tested are the high bits of the hash, which
+ *  depend on the last 64 bytes rather than only the last few.
+ *  @author
+ */
+class Chunker {
+
+    /** Smallest chunk, except at the end of a stream. */
+    static final int MIN_SIZE = 16 << 10;
+    /** Size around which chunk sizes are normalized. */
+    static final int AVERAGE_SIZE = 64 << 10;
+    /** Largest chunk. */
+    static final int MAX_SIZE = 256 << 10;
+
+    /** Mask of the hash bits that must be zero for a boundary before
+     *  AVERAGE_SIZE: two more than log2(AVERAGE_SIZE). */
+    private static final long MASK_SMALL = -1L << (64 - 18);
+    /** Mask of the hash bits that must be zero for a boundary after
+     *  AVERAGE_SIZE: two fewer than log2(AVERAGE_SIZE). */
+    private static final long MASK_LARGE = -1L << (64 - 14);
+    /** Seed of the generator that fills GEAR.  Changing it would change
+     *  every chunk boundary, and so defeat sharing with stored chunks. */
+    private static final long GEAR_SEED = 0x676974_6c6574L;
+
+    /** The random value added to the hash for each byte value. */
+    private final long[] gear = new long[256];
+
+    /** A chunker with the fixed gear table of all Gitlet repositories. */
+    Chunker() {
+        long state = GEAR_SEED;
+        for (int i = 0; i < gear.length; i += 1) {
+            state += 0x9e3779b97f4a7c15L;
+            long z = state;
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            gear[i] = z ^ (z >>> 31);
+        }
+    }
+
+    /** Returns the length of the chunk at the start of DATA[0 .. LEN).
+     *  LEN must be at least MAX_SIZE unless DATA holds the rest of the
+     *  stream. */
+    int cut(byte[] data, int len) {
+        if (len <= MIN_SIZE) {
+            return len;
+        }
+        int limit = Math.min(len, MAX_SIZE);
+        int normal = Math.min(limit, AVERAGE_SIZE);
+        long hash = 0;
+        int i = MIN_SIZE;
+        for (; i < normal; i += 1) {
+            hash = (hash << 1) + gear[data[i] & 0xff];
+            if ((hash & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < limit; i += 1) {
+            hash = (hash << 1) + gear[data[i] & 0xff];
+            if ((hash & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+}
@@ -0,0 +1,104 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/** Helpers for Gitlet's binary file formats, which replace Java
+ *  serialization for commits and repository state.
+ *
+ *  Every encoded record starts with a header of four bytes: MAGIC as a
+ *  short, a kind byte saying what the record holds, and a version byte
+ *  for that kind.  Strings are an int byte count followed by their UTF-8
+ *  bytes, and object IDs are written as their raw 20 bytes.  Multi-byte
+ *  numbers are big-endian.
+ *  @author
+ */
+class Codec {
+
+    /** First two bytes of every encoded record ("GL"). */
+    static final short MAGIC = 0x474c;
+    /** First two bytes of a Java serialization stream, which is how
+     *  records were written by older versions of Gitlet. */
+    static final short JAVA_MAGIC = (short) 0xaced;
+    /** Length of a raw object ID. */
+    static final int HASH_SIZE = Utils.UID_LENGTH / 2;
+
+    /** Returns a stream for encoding a record of the given KIND and
+     *  VERSION, with its header already written to it.  The encoding is
+     *  collected in BYTES. */
+    static DataOutputStream start(ByteArrayOutputStream bytes, int kind,
+                                  int version) {
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(MAGIC);
+            out.writeByte(kind);
+            out.writeByte(version);
+        } catch (IOException excp) {
+            throw Utils.error("Internal error encoding record.");
+        }
+        return out;
+    }
+
+    /** Returns true iff DATA was written by Java serialization. */
+    static boolean isJavaSerialized(byte[] data) {
+        return data.length >= 2
+            && ByteBuffer.wrap(data).getShort(0) == JAVA_MAGIC;
+    }
+
+    /** Checks that DATA starts with the header of a record of the given
+     *  KIND and returns a buffer positioned after the header.  The version
+     *  may be read with version(). */
+    static ByteBuffer open(byte[] data, int kind) {
+        ByteBuffer in = ByteBuffer.wrap(data);
+        if (data.length < 4 || in.getShort() != MAGIC || in.get() != kind) {
+            throw Utils.error("Unrecognized record format.");
+        }
+        in.get();
+        return in;
+    }
+
+    /** Returns the version of the record in the buffer IN returned by
+     *  open. */
+    static int version(ByteBuffer in) {
+        return in.get(3) & 0xff;
+    }
+
+    /** Writes S to OUT as a length-prefixed UTF-8 string. */
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Reads a string written by writeString from IN. */
+    static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0 || length > in.remaining()) {
+            throw Utils.error("Corrupt record.");
+        }
+        String result = new String(in.array(), in.arrayOffset() + in.position(),
+                                   length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return result;
+    }
+
+    /** Writes the object ID ID to OUT as raw bytes. */
+    static void writeHash(DataOutputStream out, String id) throws IOException {
+        out.write(Utils.hexToBytes(id));
+    }
+
+    /** Reads an object ID written by writeHash from IN. */
+    static String readHash(ByteBuffer in) {
+        byte[] hash = new byte[HASH_SIZE];
+        try {
+            in.get(hash);
+        } catch (BufferUnderflowException excp) {
+            throw Utils.error("Corrupt record.");
+        }
+        return Utils.bytesToHex(hash);
+    }
+}
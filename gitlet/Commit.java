@@ -1,7 +1,10 @@
 package gitlet;
 
 
-import java.io.Serializable;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.text.SimpleDateFormat;
 
@@ -11,7 +14,12 @@ import java.text.SimpleDateFormat;
  *
  *  @author
  */
-public class Commit implements Serializable {
+public class Commit {
+
+    /** Kind byte of an encoded commit. */
+    private static final int KIND = 'C';
+    /** Version of the commit encoding. */
+    private static final int VERSION = 2;
     /**
      *
      *
@@ -25,34 +33,50 @@ public class Commit implements Serializable {
 
 
 
-    private Commit[] parent;
+    /** The IDs of this Commit's parents, first parent first; null for
+     *  the initial commit. */
+    private String[] parent;
 
     private Date date;
 
     private String id;
 
-    private HashMap<String, Blob> blobMap;
+    /** The ID of the Tree of the top directory. */
+    private String tree;
 
 
 
 
-    public Commit(String msg) {
+    /** The initial commit, with message MSG, whose files are those of the
+     *  (empty) tree with ID TREE. */
+    public Commit(String msg, String tree) {
         this.message = msg;
         this.date = new Date(0L);
-        this.blobMap = new HashMap<>();
+        this.tree = tree;
         this.id =  generateID();
 
     }
 
-    public Commit(String msg, Commit[] parentCommits,
-                  HashMap<String, Blob> blobMap) {
+
+    /** A commit with message MSG and parents PARENTCOMMITS whose files are
+     *  those of the tree with ID TREE. */
+    Commit(String msg, String[] parentCommits, String tree) {
         this.message = msg;
         this.date = new Date(System.currentTimeMillis());
-        this.blobMap = blobMap;
+        this.tree = tree;
         this.parent = parentCommits;
         this.id = generateID();
+    }
 
-
+    /** A commit with the given ID, message MSG, DATE, PARENT IDs and
+     *  TREE ID, as read by decode or converted from a repository of the
+     *  first version of Gitlet. */
+    Commit(String id, String msg, Date date, String[] parent, String tree) {
+        this.id = id;
+        this.message = msg;
+        this.date = date;
+        this.parent = parent;
+        this.tree = tree;
     }
 
 
@@ -63,7 +87,7 @@ public class Commit implements Serializable {
 
         String parentid = "";
         if (parent != null) {
-            parentid = parent[0].getcommitID();
+            parentid = parent[0];
         }
 
         return Utils.sha1(message +  strDate + parentid);
@@ -83,15 +107,16 @@ public class Commit implements Serializable {
         if (parent == null) {
             return null;
         }
-        return parent[0].getcommitID();
+        return parent[0];
     }
 
-    public HashMap getBlobMap() {
-        return blobMap;
+    /** Returns the ID of the tree of the top directory. */
+    String getTree() {
+        return tree;
     }
 
 
-    public Commit[] getParent() {
+    public String[] getParent() {
         return parent;
     }
 
@@ -99,7 +124,57 @@ public class Commit implements Serializable {
         return date;
     }
 
-    public void setParent(Commit[] parent) {
-        this.parent = parent;
+    /** Returns an estimate of the memory taken by this commit, in bytes:
+     *  a fixed overhead for each object plus one byte per character of
+     *  its strings. */
+    long weight() {
+        long result = 128 + message.length();
+        if (parent != null) {
+            result += 64 * parent.length;
+        }
+        return result;
+    }
+
+    /** Returns this commit in Gitlet's binary commit format: its ID, time
+     *  in milliseconds, parent count and parents, message, and tree ID. */
+    byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = Codec.start(bytes, KIND, VERSION);
+        try {
+            Codec.writeHash(out, id);
+            out.writeLong(date.getTime());
+            out.writeByte(parent == null ? 0 : parent.length);
+            if (parent != null) {
+                for (String p : parent) {
+                    Codec.writeHash(out, p);
+                }
+            }
+            Codec.writeString(out, message);
+            Codec.writeHash(out, tree);
+        } catch (IOException excp) {
+            throw Utils.error("Internal error encoding commit.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Returns the commit encoded in DATA, in the format written by
+     *  encode. */
+    static Commit decode(byte[] data) {
+        ByteBuffer in = Codec.open(data, KIND);
+        if (Codec.version(in) != VERSION) {
+            throw Utils.error("Unsupported commit version.");
+        }
+        String id = Codec.readHash(in);
+        Date date = new Date(in.getLong());
+        int parents = in.get() & 0xff;
+        String[] parent = null;
+        if (parents > 0) {
+            parent = new String[parents];
+            for (int i = 0; i < parents; i += 1) {
+                parent[i] = Codec.readHash(in);
+            }
+        }
+        String msg = Codec.readString(in);
+        return new Commit(id, msg, date, parent, Codec.readHash(in));
     }
 }
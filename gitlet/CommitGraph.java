@@ -0,0 +1,634 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+/** The shape of the history of a repository: for each commit, the
+ *  positions of its parents, its generation number (1 for a commit with
+ *  no parents, otherwise one more than the largest generation of its
+ *  parents), and its commit time.  Commits are numbered by position, and
+ *  walks over the history use only these numbers and primitive arrays,
+ *  without decoding commits.  A commit is an ancestor of another only if
+ *  its generation is smaller, which lets walks stop early.
+ *
+ *  The graph is kept in two parts, like MessageIndex: a base file,
+ *  rewritten only when the log grows too large (see needsCompaction) or
+ *  when the repository is repacked, and a log to which each commit is
+ *  appended.  The commits of the base file come first, in order of ID,
+ *  followed by those of the log in the order they were made.  Any
+ *  commits missing from both are added at the end the first time they
+ *  are asked for, by decoding them and those of their ancestors not
+ *  already present.
+ *
+ *  The base file is a Codec record holding the number of commits, the
+ *  raw IDs of the commits in order, and then for each commit its time,
+ *  its generation, its number of parents, and their positions.  The log
+ *  is a Codec header followed by a record for each commit: its number of
+ *  parents as a byte, its raw ID, its time, the raw IDs of its parents,
+ *  and a CRC-32 of the rest of the record.  Reading stops at the first
+ *  record that is incomplete or damaged, as one left by a crash would
+ *  be, or whose parents are not already in the graph.
+ *  @author
+ */
+class CommitGraph {
+
+    /** Kind byte of an encoded commit graph. */
+    private static final int KIND = 'G';
+    /** Kind byte of the log. */
+    private static final int LOG_KIND = 'H';
+    /** Size of the header of the log. */
+    private static final int HEADER_SIZE = 4;
+    /** Number of commits in the log above which it should be merged
+     *  into the base file. */
+    static final int LOG_LIMIT = 1024;
+    /** Version of the commit graph encoding. */
+    private static final int VERSION = 1;
+    /** Position returned for a commit that is not there. */
+    static final int NONE = -1;
+    /** Flag of a commit reached from the first commit of a paint. */
+    private static final int PARENT1 = 1;
+    /** Flag of a commit reached from the second commit of a paint. */
+    private static final int PARENT2 = 2;
+    /** Flag of a commit reached from a common ancestor. */
+    private static final int STALE = 4;
+    /** Flag of a commit found to be a common ancestor. */
+    private static final int RESULT = 8;
+
+    /** Returns the commit with a given ID, for commits not in the file. */
+    private final Function<String, Commit> loader;
+    /** The log, or null if the graph has none. */
+    private final File log;
+    /** The number of bytes at the start of LOG that hold intact records. */
+    private long logEnd;
+    /** The number of commits read from LOG or appended to it. */
+    private int logCount;
+    /** The raw IDs of the commits in the file, in order. */
+    private final byte[] fileIDs;
+    /** The number of commits in the file. */
+    private final int fileCount;
+    /** The positions of the commits added since the file was read, by
+     *  ID. */
+    private final HashMap<String, Integer> added = new HashMap<>();
+
+    /** The number of commits in the graph. */
+    private int count;
+    /** The IDs of the commits, by position, filled in as needed for
+     *  those in the file. */
+    private String[] ids;
+    /** The parents of the commit at position K are at positions
+     *  PARENTS[PARENTSTART[K]] up to PARENTS[PARENTSTART[K + 1]]. */
+    private int[] parentStart;
+    /** The positions of the parents of all commits. */
+    private int[] parents;
+    /** The generation numbers of the commits, by position. */
+    private int[] generations;
+    /** The commit times of the commits, in milliseconds, by position. */
+    private long[] times;
+
+    /** The results of mergeBases, keyed by the two positions given it,
+     *  the smaller in the upper half. */
+    private final HashMap<Long, int[]> bases = new HashMap<>();
+    /** The flags painted on each commit by the current paint, all zero
+     *  between paints. */
+    private byte[] flags = new byte[0];
+    /** The positions whose flags the current paint has set. */
+    private int[] touchedPositions = new int[16];
+    /** The number of members of TOUCHEDPOSITIONS in use. */
+    private int touched;
+    /** The commits to visit in the current paint, as a binary max-heap of
+     *  entries holding a generation in the upper half, a position, and
+     *  a bit that is 1 iff the commit was stale when added. */
+    private long[] heap = new long[16];
+    /** The number of entries in HEAP. */
+    private int heapSize;
+
+    /** An empty graph, to which commits are added as needed by reading
+     *  them with LOADER. */
+    CommitGraph(Function<String, Commit> loader) {
+        this((byte[]) null, null, loader);
+    }
+
+    /** The graph stored in FILE, or an empty graph if there is no such
+     *  file, to which commits are added as needed by reading them with
+     *  LOADER. */
+    CommitGraph(File file, Function<String, Commit> loader) {
+        this(file.isFile() ? Utils.readContents(file) : null, null, loader);
+    }
+
+    /** The graph stored in the base file FILE and the log LOG, either of
+     *  which may be missing, to which commits are added as needed by
+     *  reading them with LOADER. */
+    CommitGraph(File file, File log, Function<String, Commit> loader) {
+        this(file.isFile() ? Utils.readContents(file) : null, log, loader);
+        if (log.isFile()) {
+            readLog(Utils.readContents(log));
+        }
+    }
+
+    /** The graph encoded in DATA, or an empty graph if DATA is null, with
+     *  the log LOG, to which commits are added as needed by reading them
+     *  with LOADER. */
+    private CommitGraph(byte[] data, File log,
+                        Function<String, Commit> loader) {
+        this.loader = loader;
+        this.log = log;
+        if (data == null) {
+            fileIDs = new byte[0];
+            fileCount = 0;
+            allocate(16, 16);
+            return;
+        }
+        ByteBuffer in = Codec.open(data, KIND);
+        if (Codec.version(in) != VERSION) {
+            throw Utils.error("Unsupported commit graph version.");
+        }
+        fileCount = in.getInt();
+        fileIDs = new byte[fileCount * Codec.HASH_SIZE];
+        in.get(fileIDs);
+        allocate(fileCount + 16, 2 * fileCount + 16);
+        for (int k = 0; k < fileCount; k += 1) {
+            times[k] = in.getLong();
+            generations[k] = in.getInt();
+            int start = parentStart[k];
+            int n = in.getInt();
+            growParents(start + n);
+            for (int i = 0; i < n; i += 1) {
+                parents[start + i] = in.getInt();
+            }
+            parentStart[k + 1] = start + n;
+        }
+        count = fileCount;
+    }
+
+    /** Returns the number of commits in the graph. */
+    int size() {
+        return count;
+    }
+
+    /** Returns the position of the commit with the given ID, adding it
+     *  and those of its ancestors not yet in the graph. */
+    int position(String id) {
+        int pos = find(id);
+        return pos >= 0 ? pos : add(id);
+    }
+
+    /** Returns the ID of the commit at position POS. */
+    String id(int pos) {
+        if (ids[pos] == null) {
+            ids[pos] = Utils.bytesToHex(
+                Arrays.copyOfRange(fileIDs, pos * Codec.HASH_SIZE,
+                                   (pos + 1) * Codec.HASH_SIZE));
+        }
+        return ids[pos];
+    }
+
+    /** Returns the number of parents of the commit at position POS. */
+    int parentCount(int pos) {
+        return parentStart[pos + 1] - parentStart[pos];
+    }
+
+    /** Returns the position of parent number K of the commit at position
+     *  POS. */
+    int parent(int pos, int k) {
+        return parents[parentStart[pos] + k];
+    }
+
+    /** Returns the generation number of the commit at position POS. */
+    int generation(int pos) {
+        return generations[pos];
+    }
+
+    /** Returns the commit time of the commit at position POS, in
+     *  milliseconds. */
+    long time(int pos) {
+        return times[pos];
+    }
+
+    /** Returns true iff the commit at position ANCESTOR is the commit at
+     *  position POS or one of its ancestors.  Commits of smaller
+     *  generation than ANCESTOR are not visited. */
+    boolean isAncestor(int ancestor, int pos) {
+        int floor = generations[ancestor];
+        BitSet seen = new BitSet();
+        int[] pending = new int[16];
+        int n = 0;
+        pending[n++] = pos;
+        seen.set(pos);
+        while (n > 0) {
+            int k = pending[--n];
+            if (k == ancestor) {
+                return true;
+            }
+            for (int i = parentStart[k]; i < parentStart[k + 1]; i += 1) {
+                int p = parents[i];
+                if (!seen.get(p) && generations[p] >= floor) {
+                    seen.set(p);
+                    if (n == pending.length) {
+                        pending = Arrays.copyOf(pending, 2 * n);
+                    }
+                    pending[n++] = p;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Returns the positions of all the best common ancestors of the
+     *  commits at positions A and B: the common ancestors that are not
+     *  ancestors of other common ancestors.  There is usually one, but
+     *  there may be none, or several after criss-cross merges.  If one of
+     *  A and B is an ancestor of the other, it is the only result.  The
+     *  result is remembered for later calls with the same two commits,
+     *  and must not be modified.
+     *
+     *  The histories of A and B are walked together, in order of
+     *  decreasing generation, painting each commit reached with the
+     *  side or sides it is reached from.  A commit painted from both
+     *  sides is a common ancestor, and its ancestors are painted stale;
+     *  the walk ends when only stale commits remain to be visited, so it
+     *  takes time proportional to the history since A and B diverged. */
+    int[] mergeBases(int a, int b) {
+        long key = a < b ? (long) a << 32 | b : (long) b << 32 | a;
+        int[] result = bases.get(key);
+        if (result == null) {
+            result = a == b ? new int[] { a } : removeRedundant(paint(a, b));
+            bases.put(key, result);
+        }
+        return result;
+    }
+
+    /** Appends to the log the commit with the given ID, after adding it
+     *  to the graph, together with any of its ancestors that are in
+     *  neither the base file nor the log. */
+    void append(String id) {
+        position(id);
+        int first = fileCount + logCount;
+        if (first == count) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            if (logEnd == 0) {
+                Codec.start(bytes, LOG_KIND, VERSION);
+            }
+            for (int k = first; k < count; k += 1) {
+                ByteArrayOutputStream record = new ByteArrayOutputStream();
+                DataOutputStream rec = new DataOutputStream(record);
+                rec.writeByte(parentCount(k));
+                Codec.writeHash(rec, id(k));
+                rec.writeLong(times[k]);
+                for (int i = parentStart[k]; i < parentStart[k + 1]; i += 1) {
+                    Codec.writeHash(rec, id(parents[i]));
+                }
+                CRC32 crc = new CRC32();
+                crc.update(record.toByteArray());
+                rec.writeInt((int) crc.getValue());
+                record.writeTo(out);
+            }
+            out.flush();
+        } catch (IOException excp) {
+            throw Utils.error("Internal error encoding commit graph log.");
+        }
+        ByteBuffer data = ByteBuffer.wrap(bytes.toByteArray());
+        try (FileChannel channel =
+                 FileChannel.open(log.toPath(), StandardOpenOption.CREATE,
+                                  StandardOpenOption.WRITE)) {
+            channel.truncate(logEnd);
+            while (data.hasRemaining()) {
+                logEnd += channel.write(data, logEnd);
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write %s: %s", log, excp.getMessage());
+        }
+        logCount = count - fileCount;
+    }
+
+    /** Returns true iff the log holds enough commits that it should be
+     *  merged into the base file: more than LOG_LIMIT and more than an
+     *  eighth of those in the base file, so that rewriting the base file
+     *  costs each commit only a few times the work of logging it. */
+    boolean needsCompaction() {
+        return logCount > Math.max(LOG_LIMIT, fileCount / 8);
+    }
+
+    /** Returns the encoding of the whole graph, with its commits in order
+     *  of ID. */
+    byte[] encode() {
+        String[] sorted = new String[count];
+        for (int k = 0; k < count; k += 1) {
+            sorted[k] = id(k);
+        }
+        Arrays.sort(sorted);
+        int[] order = new int[count];
+        int[] newPos = new int[count];
+        for (int k = 0; k < count; k += 1) {
+            order[k] = find(sorted[k]);
+            newPos[order[k]] = k;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = Codec.start(bytes, KIND, VERSION);
+        try {
+            out.writeInt(count);
+            for (int k : order) {
+                Codec.writeHash(out, id(k));
+            }
+            for (int k : order) {
+                out.writeLong(times[k]);
+                out.writeInt(generations[k]);
+                out.writeInt(parentCount(k));
+                for (int i = parentStart[k]; i < parentStart[k + 1]; i += 1) {
+                    out.writeInt(newPos[parents[i]]);
+                }
+            }
+            out.flush();
+        } catch (IOException excp) {
+            throw Utils.error("Internal error encoding commit graph.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Returns the common ancestors of the distinct commits at positions
+     *  A and B found by painting down from them, as for mergeBases.  The
+     *  result includes every best common ancestor, and may include
+     *  others. */
+    private int[] paint(int a, int b) {
+        if (flags.length < count) {
+            flags = Arrays.copyOf(flags, Math.max(count, 2 * flags.length));
+        }
+        touched = 0;
+        heapSize = 0;
+        int nonStale = 0;
+        int[] result = new int[2];
+        int found = 0;
+        mark(a, PARENT1);
+        nonStale += push(a);
+        mark(b, PARENT2);
+        nonStale += push(b);
+        while (nonStale > 0) {
+            long top = pop();
+            int k = (int) (top >> 1) & Integer.MAX_VALUE;
+            if ((top & 1) == 0) {
+                nonStale -= 1;
+            }
+            int paint = flags[k] & (PARENT1 | PARENT2 | STALE);
+            if (paint == (PARENT1 | PARENT2)) {
+                if ((flags[k] & RESULT) == 0) {
+                    mark(k, RESULT);
+                    if (found == result.length) {
+                        result = Arrays.copyOf(result, 2 * found);
+                    }
+                    result[found++] = k;
+                }
+                paint |= STALE;
+            }
+            for (int i = parentStart[k]; i < parentStart[k + 1]; i += 1) {
+                int p = parents[i];
+                if ((flags[p] & paint) != paint) {
+                    mark(p, paint);
+                    nonStale += push(p);
+                }
+            }
+        }
+        for (int i = 0; i < found; i += 1) {
+            if ((flags[result[i]] & STALE) != 0) {
+                result[i] = NONE;
+            }
+        }
+        for (int i = 0; i < touched; i += 1) {
+            flags[touchedPositions[i]] = 0;
+        }
+        return Arrays.stream(result, 0, found).filter(k -> k != NONE)
+            .toArray();
+    }
+
+    /** Returns CANDIDATES without those that are ancestors of others, in
+     *  order of decreasing generation. */
+    private int[] removeRedundant(int[] candidates) {
+        Integer[] order = Arrays.stream(candidates).boxed()
+            .sorted((x, y) -> Integer.compare(generations[y], generations[x]))
+            .toArray(Integer[]::new);
+        int[] result = new int[order.length];
+        int n = 0;
+        for (int k : order) {
+            boolean redundant = false;
+            for (int i = 0; i < n && !redundant; i += 1) {
+                redundant = isAncestor(k, result[i]);
+            }
+            if (!redundant) {
+                result[n++] = k;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Adds the flags FLAG to those of the commit at position POS,
+     *  recording it as touched by the current paint if it was not. */
+    private void mark(int pos, int flag) {
+        if (flags[pos] == 0) {
+            if (touched == touchedPositions.length) {
+                touchedPositions = Arrays.copyOf(touchedPositions, 2 * touched);
+            }
+            touchedPositions[touched++] = pos;
+        }
+        flags[pos] |= flag;
+    }
+
+    /** Adds the commit at position POS to the heap of commits to visit,
+     *  noting whether it is now stale, and returns 1 if it is not and
+     *  0 if it is. */
+    private int push(int pos) {
+        int stale = (flags[pos] & STALE) != 0 ? 1 : 0;
+        long entry = (long) generations[pos] << 32 | (long) pos << 1 | stale;
+        if (heapSize == heap.length) {
+            heap = Arrays.copyOf(heap, 2 * heapSize);
+        }
+        int i = heapSize++;
+        while (i > 0 && heap[(i - 1) / 2] < entry) {
+            heap[i] = heap[(i - 1) / 2];
+            i = (i - 1) / 2;
+        }
+        heap[i] = entry;
+        return 1 - stale;
+    }
+
+    /** Removes and returns the entry of the heap of commits to visit with
+     *  the largest generation. */
+    private long pop() {
+        long top = heap[0];
+        long last = heap[--heapSize];
+        int i = 0;
+        while (2 * i + 1 < heapSize) {
+            int child = 2 * i + 1;
+            if (child + 1 < heapSize && heap[child + 1] > heap[child]) {
+                child += 1;
+            }
+            if (heap[child] <= last) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = last;
+        return top;
+    }
+
+    /** Returns the position of the commit with the given ID, or NONE if
+     *  it is not in the graph. */
+    private int find(String id) {
+        Integer pos = added.get(id);
+        if (pos != null) {
+            return pos;
+        }
+        byte[] key = Utils.hexToBytes(id);
+        int lo = 0, hi = fileCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = Arrays.compareUnsigned(fileIDs, mid * Codec.HASH_SIZE,
+                                           (mid + 1) * Codec.HASH_SIZE,
+                                           key, 0, key.length);
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return NONE;
+    }
+
+    /** Adds the commit with the given ID, which is not in the graph, after
+     *  adding any of its ancestors that are not, and returns its
+     *  position. */
+    private int add(String id) {
+        ArrayDeque<Commit> pending = new ArrayDeque<>();
+        pending.push(loader.apply(id));
+        while (!pending.isEmpty()) {
+            Commit commit = pending.peek();
+            String[] ps = commit.getParent() == null ? new String[0]
+                : commit.getParent();
+            boolean ready = true;
+            for (String p : ps) {
+                if (find(p) < 0) {
+                    pending.push(loader.apply(p));
+                    ready = false;
+                }
+            }
+            if (!ready) {
+                continue;
+            }
+            pending.pop();
+            if (find(commit.getcommitID()) >= 0) {
+                continue;
+            }
+
+            int[] positions = new int[ps.length];
+            for (int i = 0; i < ps.length; i += 1) {
+                positions[i] = find(ps[i]);
+            }
+            put(commit.getcommitID(), commit.getCommitTime().getTime(),
+                positions);
+        }
+        return find(id);
+    }
+
+    /** Adds the commit with the given ID and TIME, which is not in the
+     *  graph, whose parents are at positions PARENTPOSITIONS. */
+    private void put(String id, long time, int[] parentPositions) {
+        if (count + 1 >= generations.length) {
+            int size = 2 * generations.length;
+            ids = Arrays.copyOf(ids, size);
+            generations = Arrays.copyOf(generations, size);
+            times = Arrays.copyOf(times, size);
+            parentStart = Arrays.copyOf(parentStart, size + 1);
+        }
+        int start = parentStart[count];
+        growParents(start + parentPositions.length);
+        int generation = 1;
+        for (int i = 0; i < parentPositions.length; i += 1) {
+            int p = parentPositions[i];
+            parents[start + i] = p;
+            generation = Math.max(generation, generations[p] + 1);
+        }
+        ids[count] = id;
+        generations[count] = generation;
+        times[count] = time;
+        parentStart[count + 1] = start + parentPositions.length;
+        added.put(id, count);
+        count += 1;
+    }
+
+    /** Adds the commits of DATA, the contents of the log, that are not
+     *  already in the graph, stopping at the first record that is
+     *  incomplete, damaged, or refers to a parent not in the graph. */
+    private void readLog(byte[] data) {
+        if (data.length < HEADER_SIZE) {
+            return;
+        }
+        ByteBuffer in = Codec.open(data, LOG_KIND);
+        if (Codec.version(in) != VERSION) {
+            return;
+        }
+        int pos = HEADER_SIZE;
+        while (pos < data.length) {
+            int n = data[pos] & 0xff;
+            int size = 1 + (n + 1) * Codec.HASH_SIZE + 8;
+            if (pos + size + 4 > data.length) {
+                break;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data, pos, size);
+            if (in.getInt(pos + size) != (int) crc.getValue()) {
+                break;
+            }
+            in.position(pos + 1);
+            String id = Codec.readHash(in);
+            long time = in.getLong();
+            int[] positions = new int[n];
+            boolean known = true;
+            for (int i = 0; i < n; i += 1) {
+                positions[i] = find(Codec.readHash(in));
+                known &= positions[i] >= 0;
+            }
+            if (!known) {
+                break;
+            }
+            if (find(id) < 0) {
+                put(id, time, positions);
+            }
+            pos += size + 4;
+        }
+        logEnd = pos;
+        logCount = count - fileCount;
+    }
+
+    /** Makes the arrays for the commits room for COMMITS commits and
+     *  EDGES parents in all. */
+    private void allocate(int commits, int edges) {
+        ids = new String[commits];
+        generations = new int[commits];
+        times = new long[commits];
+        parentStart = new int[commits + 1];
+        parents = new int[edges];
+    }
+
+    /** Makes PARENTS hold at least SIZE positions. */
+    private void growParents(int size) {
+        if (size > parents.length) {
+            parents = Arrays.copyOf(parents, Math.max(size, 2 * parents.length));
+        }
+    }
+}
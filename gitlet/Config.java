@@ -0,0 +1,86 @@
+package gitlet;
+
+import java.io.File;
+import java.util.HashMap;
+
+/** The settings of a repository, read from the file .gitlet/config.  Each
+ *  line of the file is either blank, a comment starting with '#', or a
+ *  setting of the form NAME = VALUE.  Settings not in the file have
+ *  default values supplied by the code that uses them.
+ *  @author
+ */
+class Config {
+
+    /** The settings, by name. */
+    private final HashMap<String, String> values = new HashMap<>();
+
+    /** The settings in FILE, or no settings if there is no such file. */
+    Config(File file) {
+        if (!file.isFile()) {
+            return;
+        }
+        for (String line : Utils.readContentsAsString(file).split("\n")) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int eq = line.indexOf('=');
+            if (eq <= 0) {
+                throw Utils.error("Bad line in %s: %s", file, line);
+            }
+            values.put(line.substring(0, eq).trim(),
+                       line.substring(eq + 1).trim());
+        }
+    }
+
+    /** Returns the value of setting NAME, or DEFAULTVALUE if it is not
+     *  set. */
+    String get(String name, String defaultValue) {
+        return values.getOrDefault(name, defaultValue);
+    }
+
+    /** Returns the value of setting NAME as an integer, or DEFAULTVALUE
+     *  if it is not set. */
+    int getInt(String name, int defaultValue) {
+        String value = values.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException excp) {
+            throw Utils.error("Bad value for %s: %s", name, value);
+        }
+    }
+
+    /** Returns the value of setting NAME as a number of bytes, which may
+     *  be followed by k, m or g for kibibytes, mebibytes or gibibytes, or
+     *  DEFAULTVALUE if it is not set. */
+    long getSize(String name, long defaultValue) {
+        String value = values.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        int shift = 0;
+        switch (Character.toLowerCase(value.charAt(value.length() - 1))) {
+        case 'k':
+            shift = 10;
+            break;
+        case 'm':
+            shift = 20;
+            break;
+        case 'g':
+            shift = 30;
+            break;
+        default:
+            break;
+        }
+        try {
+            return Long.parseLong(shift == 0 ? value
+                                  : value.substring(0, value.length() - 1))
+                << shift;
+        } catch (NumberFormatException excp) {
+            throw Utils.error("Bad value for %s: %s", name, value);
+        }
+    }
+}
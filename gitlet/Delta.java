@@ -0,0 +1,136 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/** Delta encoding of one byte sequence against another.
+ *
+ *  A delta starts with the lengths of the base and of the result, each
+ *  as a variable-length integer, followed by instructions.  An
+ *  instruction byte with its high bit set is a copy: it is followed by an
+ *  offset into the base and a length, both variable-length integers, and
+ *  copies that many bytes of the base.  Any other instruction byte N is
+ *  an insert, and is followed by N literal bytes (1 <= N <= 127).
+ *  @author
+ */
+class Delta {
+
+    /** Length of the blocks of the base that copies are matched on. */
+    private static final int BLOCK = 16;
+    /** Largest number of literal bytes in one insert. */
+    private static final int MAX_INSERT = 0x7f;
+    /** Instruction byte for a copy. */
+    private static final int COPY = 0x80;
+
+    /** Returns a delta that turns BASE into TARGET. */
+    static byte[] encode(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+
+        HashMap<Integer, Integer> blocks = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            blocks.putIfAbsent(hash(base, i), i);
+        }
+
+        int literal = 0;
+        int i = 0;
+        while (i + BLOCK <= target.length) {
+            Integer j = blocks.get(hash(target, i));
+            if (j == null
+                || !Arrays.equals(base, j, j + BLOCK, target, i, i + BLOCK)) {
+                i += 1;
+                continue;
+            }
+            int start = i, from = j;
+            while (start > literal && from > 0
+                   && target[start - 1] == base[from - 1]) {
+                start -= 1;
+                from -= 1;
+            }
+            int end = i + BLOCK, baseEnd = j + BLOCK;
+            while (end < target.length && baseEnd < base.length
+                   && target[end] == base[baseEnd]) {
+                end += 1;
+                baseEnd += 1;
+            }
+            writeInserts(out, target, literal, start);
+            out.write(COPY);
+            writeVarint(out, from);
+            writeVarint(out, end - start);
+            i = literal = end;
+        }
+        writeInserts(out, target, literal, target.length);
+        return out.toByteArray();
+    }
+
+    /** Returns the result of applying the delta, produced by encode, in
+     *  the remaining bytes of IN to BASE. */
+    static byte[] apply(byte[] base, ByteBuffer in) {
+        if (readVarint(in) != base.length) {
+            throw Utils.error("Delta does not match its base.");
+        }
+        byte[] result = new byte[readVarint(in)];
+        int n = 0;
+        while (in.hasRemaining()) {
+            int op = in.get() & 0xff;
+            if (op == COPY) {
+                int offset = readVarint(in);
+                int length = readVarint(in);
+                System.arraycopy(base, offset, result, n, length);
+                n += length;
+            } else {
+                in.get(result, n, op);
+                n += op;
+            }
+        }
+        if (n != result.length) {
+            throw Utils.error("Corrupt delta.");
+        }
+        return result;
+    }
+
+    /** Writes inserts of TARGET[START .. END) to OUT. */
+    private static void writeInserts(ByteArrayOutputStream out,
+                                     byte[] target, int start, int end) {
+        while (start < end) {
+            int n = Math.min(MAX_INSERT, end - start);
+            out.write(n);
+            out.write(target, start, n);
+            start += n;
+        }
+    }
+
+    /** Returns a hash of the BLOCK bytes of DATA starting at START. */
+    private static int hash(byte[] data, int start) {
+        int h = 0;
+        for (int k = start; k < start + BLOCK; k += 1) {
+            h = 31 * h + data[k];
+        }
+        return h;
+    }
+
+    /** Writes the non-negative VALUE to OUT, seven bits at a time, low-order
+     *  bits first, setting the high bit of every byte but the last. */
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while (value >= 0x80) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /** Reads a value written by writeVarint from IN. */
+    private static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = in.get() & 0xff;
+            value |= (b & 0x7f) << shift;
+            if (b < 0x80) {
+                return value;
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/** Computes object IDs: the hex hash of an object's contents in one of
+ *  the object formats SHA1 or SHA256.  Each thread using a Hasher has its
+ *  own digest, buffer and string encoder, made on first use and reused
+ *  after that, so hashing a string, array or file allocates little more
+ *  than the resulting ID.  Digests for hashing streams are cloned from a
+ *  prototype rather than looked up by name.
+ *  @author
+ */
+class Hasher {
+
+    /** Name of the SHA-1 object format. */
+    static final String SHA1 = "sha1";
+    /** Name of the SHA-256 object format. */
+    static final String SHA256 = "sha256";
+
+    /** Size of the buffer through which each thread reads files. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** The name of the object format. */
+    private final String format;
+    /** A digest for the format, cloned to make new ones. */
+    private final MessageDigest prototype;
+    /** Each thread's digest. */
+    private final ThreadLocal<MessageDigest> digests;
+    /** Each thread's buffer for reading files and encoding strings. */
+    private final ThreadLocal<ByteBuffer> buffers =
+        ThreadLocal.withInitial(() -> ByteBuffer.allocate(BUFFER_SIZE));
+    /** Each thread's UTF-8 encoder. */
+    private final ThreadLocal<CharsetEncoder> encoders =
+        ThreadLocal.withInitial(() -> StandardCharsets.UTF_8.newEncoder()
+                                .onMalformedInput(CodingErrorAction.REPLACE)
+                                .onUnmappableCharacter(CodingErrorAction.REPLACE));
+
+    /** A hasher for object format FORMAT, SHA1 or SHA256. */
+    Hasher(String format) {
+        this.format = format;
+        String algorithm;
+        switch (format) {
+        case SHA1:
+            algorithm = "SHA-1";
+            break;
+        case SHA256:
+            algorithm = "SHA-256";
+            break;
+        default:
+            throw Utils.error("Unknown object format %s.", format);
+        }
+        try {
+            prototype = MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support "
+                                               + algorithm);
+        }
+        digests = ThreadLocal.withInitial(this::newDigest);
+    }
+
+    /** Returns the name of the object format. */
+    String format() {
+        return format;
+    }
+
+    /** Returns the length of an ID, in hex digits. */
+    int idLength() {
+        return 2 * prototype.getDigestLength();
+    }
+
+    /** Returns a new digest, for hashing a stream. */
+    MessageDigest newDigest() {
+        try {
+            return (MessageDigest) prototype.clone();
+        } catch (CloneNotSupportedException excp) {
+            try {
+                return MessageDigest.getInstance(prototype.getAlgorithm());
+            } catch (NoSuchAlgorithmException excp2) {
+                throw new IllegalArgumentException("System does not support "
+                                                   + prototype.getAlgorithm());
+            }
+        }
+    }
+
+    /** Returns the ID of the contents that DIGEST has been fed, and resets
+     *  DIGEST. */
+    static String finish(MessageDigest digest) {
+        return Utils.bytesToHex(digest.digest());
+    }
+
+    /** Returns the ID of DATA. */
+    String hash(byte[] data) {
+        MessageDigest digest = digests.get();
+        digest.update(data);
+        return finish(digest);
+    }
+
+    /** Returns the ID of the remaining bytes of DATA, which are consumed. */
+    String hash(ByteBuffer data) {
+        MessageDigest digest = digests.get();
+        digest.update(data);
+        return finish(digest);
+    }
+
+    /** Returns the ID of the UTF-8 encoding of S.  S is encoded through
+     *  this thread's buffer a piece at a time, rather than into a new
+     *  array; ASCII strings, the usual case, are copied into it directly. */
+    String hash(String s) {
+        MessageDigest digest = digests.get();
+        ByteBuffer buffer = buffers.get();
+        byte[] bytes = buffer.array();
+        int len = s.length();
+        if (len <= bytes.length) {
+            int i;
+            for (i = 0; i < len; i += 1) {
+                char c = s.charAt(i);
+                if (c >= 0x80) {
+                    break;
+                }
+                bytes[i] = (byte) c;
+            }
+            if (i == len) {
+                digest.update(bytes, 0, len);
+                return finish(digest);
+            }
+        }
+        CharsetEncoder encoder = encoders.get().reset();
+        CharBuffer chars = CharBuffer.wrap(s);
+        while (true) {
+            buffer.clear();
+            CoderResult result = encoder.encode(chars, buffer, true);
+            if (result.isOverflow()) {
+                buffer.flip();
+                digest.update(buffer);
+                continue;
+            }
+            encoder.flush(buffer);
+            buffer.flip();
+            digest.update(buffer);
+            break;
+        }
+        return finish(digest);
+    }
+
+    /** Returns the ID of the contents of FILE, which are read through this
+     *  thread's buffer. */
+    String hash(File file) {
+        MessageDigest digest = digests.get();
+        ByteBuffer buffer = buffers.get();
+        try (FileChannel in = FileChannel.open(file.toPath(),
+                                               StandardOpenOption.READ)) {
+            buffer.clear();
+            while (in.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        } catch (IOException excp) {
+            digest.reset();
+            throw Utils.error("Cannot read %s: %s", file, excp.getMessage());
+        }
+        return finish(digest);
+    }
+}
@@ -0,0 +1,315 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/** The staging index: the files of the next commit, each with its blob
+ *  ID and the size, modification time and inode number its working file
+ *  had when that blob was recorded.  A working file whose current stat
+ *  data match its entry is known to hold that blob without reading it.
+ *
+ *  An entry is trusted only if the file was modified strictly before the
+ *  index was last written; a file modified in the same clock tick as the
+ *  write might have changed again without its stat data showing it (the
+ *  "racy" case), and is hashed again.
+ *
+ *  The index also remembers the tree ID of each directory whose tree has
+ *  been written and whose files have not changed since, so that a commit
+ *  writes new trees only for the directories on the paths of changed
+ *  files, and reads no entries outside them.
+ *
+ *  On disk, the index is a Codec record holding the number of entries
+ *  followed by each entry, in path order: the path, the raw blob ID, and
+ *  the size, modification time in nanoseconds, and inode number as
+ *  longs.  Then come the number of remembered trees and each directory
+ *  path with its raw tree ID.
+ *  @author
+ */
+class Index {
+
+    /** Kind byte of an encoded index. */
+    static final int KIND = 'I';
+    /** Version of the index encoding. */
+    static final int VERSION = 3;
+
+    /** The file holding the index. */
+    private final File file;
+    /** The entries, by path. */
+    private final TreeMap<String, Entry> entries;
+    /** Maps the path of each directory whose tree matches the entries
+     *  under it to its tree ID.  Directory paths end in '/', except that
+     *  of the top directory, which is empty. */
+    private final TreeMap<String, String> trees = new TreeMap<>();
+    /** Modification time of FILE when the index was last read or written,
+     *  in nanoseconds; entries for files modified at or after it are not
+     *  trusted. */
+    private long timestamp;
+    /** True iff the index has changed since it was read or written. */
+    private boolean changed;
+
+    /** The blob ID and stat data recorded for one file. */
+    static class Entry {
+        /** The blob ID, or null for stat data alone. */
+        final String blob;
+        /** Size of the working file in bytes. */
+        final long size;
+        /** Modification time of the working file in nanoseconds. */
+        final long mtime;
+        /** Inode number of the working file, or 0 where the file system
+         *  has none. */
+        final long inode;
+
+        /** An entry for blob BLOB, whose working file had size SIZE,
+         *  modification time MTIME in nanoseconds, and inode number
+         *  INODE. */
+        Entry(String blob, long size, long mtime, long inode) {
+            this.blob = blob;
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+        }
+
+        /** Returns true iff OTHER has the same stat data as this. */
+        boolean sameStat(Entry other) {
+            return size == other.size && mtime == other.mtime
+                && inode == other.inode;
+        }
+    }
+
+    /** An empty index to be stored in FILE. */
+    Index(File file) {
+        this.file = file;
+        this.entries = new TreeMap<>();
+    }
+
+    /** The index stored in FILE, whose contents, positioned just after
+     *  the header, are IN. */
+    Index(File file, ByteBuffer in) {
+        this(file);
+        for (int n = in.getInt(); n > 0; n -= 1) {
+            String path = Codec.readString(in);
+            String blob = Codec.readHash(in);
+            entries.put(path, new Entry(blob, in.getLong(), in.getLong(),
+                                        in.getLong()));
+        }
+        for (int n = in.getInt(); n > 0; n -= 1) {
+            String dir = Codec.readString(in);
+            trees.put(dir, Codec.readHash(in));
+        }
+        timestamp = mtime(file);
+    }
+
+    /** Returns the blob ID recorded for PATH, or null if PATH is not in
+     *  the index. */
+    String get(String path) {
+        Entry entry = entries.get(path);
+        return entry == null ? null : entry.blob;
+    }
+
+    /** Returns true iff PATH is in the index. */
+    boolean contains(String path) {
+        return entries.containsKey(path);
+    }
+
+    /** Returns the paths in the index, in order. */
+    Set<String> paths() {
+        return entries.keySet();
+    }
+
+    /** Returns a map from each path in the index to its blob ID. */
+    HashMap<String, String> snapshot() {
+        HashMap<String, String> result = new HashMap<>();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            result.put(e.getKey(), e.getValue().blob);
+        }
+        return result;
+    }
+
+    /** Returns true iff the index holds exactly the files and blobs in
+     *  BLOBS. */
+    boolean matches(Map<String, String> blobs) {
+        if (blobs.size() != entries.size()) {
+            return false;
+        }
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            if (!e.getValue().blob.equals(blobs.get(e.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Records that PATH holds blob BLOB, with stat data STAT, or with
+     *  no usable stat data if STAT is null. */
+    void put(String path, String blob, Entry stat) {
+        Entry entry = stat == null ? new Entry(blob, -1, 0, 0)
+            : new Entry(blob, stat.size, stat.mtime, stat.inode);
+        Entry old = entries.put(path, entry);
+        if (old == null || !old.blob.equals(blob)) {
+            forgetTrees(path);
+        }
+        if (old == null || !old.blob.equals(blob) || !old.sameStat(entry)) {
+            changed = true;
+        }
+    }
+
+    /** Removes PATH from the index. */
+    void remove(String path) {
+        if (entries.remove(path) != null) {
+            forgetTrees(path);
+            changed = true;
+        }
+    }
+
+    /** Records that the files under directory DIR, a path ending in '/' or
+     *  empty for the top directory, form the tree with the given ID. */
+    void rememberTree(String dir, String id) {
+        if (!id.equals(trees.put(dir, id))) {
+            changed = true;
+        }
+    }
+
+    /** Returns the IDs of the trees remembered for directories. */
+    Collection<String> rememberedTrees() {
+        return trees.values();
+    }
+
+    /** Returns the ID of the tree of the files in the index, as computed
+     *  by HASHER, after adding to STORE any trees that must be written to
+     *  make it.  Only the trees of directories containing files that have
+     *  changed since their trees were last made are written. */
+    String writeTree(ObjectStore store, Hasher hasher) {
+        return writeTree("", store, hasher);
+    }
+
+    /** Returns the ID of the tree of the files under directory DIR, a path
+     *  ending in '/' or empty, writing it to STORE if it is not
+     *  remembered. */
+    private String writeTree(String dir, ObjectStore store, Hasher hasher) {
+        String id = trees.get(dir);
+        if (id != null) {
+            return id;
+        }
+        Tree tree = new Tree();
+        String path = entries.ceilingKey(dir);
+        while (path != null && path.startsWith(dir)) {
+            int slash = path.indexOf('/', dir.length());
+            if (slash < 0) {
+                tree.putBlob(path.substring(dir.length()),
+                             entries.get(path).blob);
+                path = entries.higherKey(path);
+            } else {
+                tree.putTree(path.substring(dir.length(), slash),
+                             writeTree(path.substring(0, slash + 1), store,
+                                       hasher));
+                path = entries.ceilingKey(path.substring(0, slash)
+                                          + (char) ('/' + 1));
+            }
+        }
+        byte[] data = tree.encode();
+        id = hasher.hash(data);
+        store.write(id, data);
+        rememberTree(dir, id);
+        return id;
+    }
+
+    /** Forgets the trees of the directories containing PATH. */
+    private void forgetTrees(String path) {
+        trees.remove("");
+        for (int k = path.indexOf('/'); k >= 0; k = path.indexOf('/', k + 1)) {
+            trees.remove(path.substring(0, k + 1));
+        }
+    }
+
+    /** Returns the blob ID recorded for PATH if its working file, whose
+     *  current stat data are STAT, is known to be unchanged since it was
+     *  recorded, and otherwise null. */
+    String cachedBlob(String path, Entry stat) {
+        Entry entry = entries.get(path);
+        if (entry == null || stat == null || !entry.sameStat(stat)
+            || stat.mtime >= timestamp) {
+            return null;
+        }
+        return entry.blob;
+    }
+
+    /** Writes the index to its file through JOURNAL if it has changed
+     *  since it was read or last written. */
+    void save(Journal journal) {
+        if (!changed) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = Codec.start(bytes, KIND, VERSION);
+        try {
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                Codec.writeString(out, e.getKey());
+                Codec.writeHash(out, entry.blob);
+                out.writeLong(entry.size);
+                out.writeLong(entry.mtime);
+                out.writeLong(entry.inode);
+            }
+            out.writeInt(trees.size());
+            for (Map.Entry<String, String> e : trees.entrySet()) {
+                Codec.writeString(out, e.getKey());
+                Codec.writeHash(out, e.getValue());
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Internal error encoding index.");
+        }
+        timestamp = mtime(journal.write(file, bytes.toByteArray()));
+        changed = false;
+    }
+
+    /** Returns the current stat data of FILE, or null if it is not a
+     *  regular file. */
+    static Entry stat(File file) {
+        try {
+            BasicFileAttributes attrs =
+                Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            if (!attrs.isRegularFile()) {
+                return null;
+            }
+            long inode = 0;
+            try {
+                inode = ((Number) Files.getAttribute(file.toPath(),
+                                                     "unix:ino")).longValue();
+            } catch (UnsupportedOperationException | IllegalArgumentException
+                     excp) {
+                inode = 0;
+            }
+            return new Entry(null, attrs.size(), nanos(attrs.lastModifiedTime()),
+                             inode);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Returns the modification time of FILE in nanoseconds. */
+    private static long mtime(File file) {
+        try {
+            return nanos(Files.getLastModifiedTime(file.toPath()));
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read %s.", file);
+        }
+    }
+
+    /** Returns TIME in nanoseconds. */
+    private static long nanos(FileTime time) {
+        return time.to(TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,367 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/** The write-ahead journal through which a command updates the files
+ *  holding a repository's state, so that a crash at any point leaves
+ *  either the old state or the new one.
+ *
+ *  New contents are first written to temporary files in the tmp
+ *  directory.  When the command commits, every temporary file and every
+ *  object written by the command is flushed to disk at once, and the
+ *  renames that put the new files in place are recorded in the journal
+ *  file, followed by a CRC-32 of the record.  Only then are the renames
+ *  done, after which the journal is deleted.  On the next run, a complete
+ *  journal is replayed and an incomplete one, whose CRC does not match,
+ *  is discarded with the temporary files it refers to.
+ *
+ *  Several commands may run at once, so a command holds an exclusive lock
+ *  on the lock file while it writes and applies its journal, and recovery
+ *  happens only when no other command holds it: a journal found then was
+ *  left by a crash.  Temporary files are named after the process that
+ *  made them, and recovery removes only those of processes that are no
+ *  longer running, leaving those of running commands alone.
+ *
+ *  Setting the system property gitlet.fault to the name of one of the
+ *  steps of a commit ("temp", "journal", "apply" or "rename") simulates a
+ *  crash there, leaving a truncated file where one was being written.
+ *  Files appended to in place outside the journal may check for steps of
+ *  their own with isFault.
+ *  @author
+ */
+class Journal {
+
+    /** Kind byte of an encoded journal. */
+    private static final int KIND = 'J';
+    /** Version of the journal encoding. */
+    private static final int VERSION = 1;
+    /** Journal operation replacing a file with a temporary file. */
+    private static final int RENAME = 1;
+    /** Journal operation deleting a file. */
+    private static final int DELETE = 2;
+    /** Name of the system property that selects a simulated crash. */
+    static final String FAULT_PROPERTY = "gitlet.fault";
+
+    /** The .gitlet directory. */
+    private final File gitletDir;
+    /** The journal file. */
+    private final File file;
+    /** The directory holding temporary files. */
+    private final File tmpDir;
+    /** The file locked while a journal is written and applied. */
+    private final File lockFile;
+
+    /** Maps each file to be replaced or deleted when the journal commits to
+     *  the temporary file replacing it, or to null if it is to be
+     *  deleted. */
+    private final LinkedHashMap<File, File> pending = new LinkedHashMap<>();
+    /** Files written since the last commit that must reach the disk
+     *  before it. */
+    private final LinkedHashSet<File> unsynced = new LinkedHashSet<>();
+    /** Number of temporary files created. */
+    private int tempCount;
+
+    /** The journal of the repository in GITLETDIR. */
+    Journal(File gitletDir) {
+        this.gitletDir = gitletDir;
+        this.file = Utils.join(gitletDir, "journal");
+        this.tmpDir = Utils.join(gitletDir, "tmp");
+        this.lockFile = Utils.join(gitletDir, "lock");
+    }
+
+    /** Arranges for FILE to hold CONTENTS once the journal commits, and
+     *  returns the temporary file holding them until then. */
+    synchronized File write(File target, byte[] contents) {
+        File temp = tempFile();
+        if (isFault("temp")) {
+            Utils.writeContents(temp, (Object) truncated(contents));
+            throw crash("temp");
+        }
+        Utils.writeContents(temp, (Object) contents);
+        replace(target, temp);
+        return temp;
+    }
+
+    /** Returns a new temporary file name, for a file that is to replace
+     *  another through replace. */
+    synchronized File tempFile() {
+        tmpDir.mkdir();
+        File temp = Utils.join(tmpDir, "tmp-" + ProcessHandle.current().pid()
+                               + "-" + tempCount);
+        tempCount += 1;
+        return temp;
+    }
+
+    /** Arranges for TARGET to be replaced by TEMP, a file named by
+     *  tempFile, once the journal commits. */
+    synchronized void replace(File target, File temp) {
+        File old = pending.put(target, temp);
+        if (old != null) {
+            old.delete();
+            unsynced.remove(old);
+        }
+        unsynced.add(temp);
+    }
+
+    /** Arranges for FILE to be deleted once the journal commits. */
+    synchronized void delete(File target) {
+        File old = pending.put(target, null);
+        if (old != null) {
+            old.delete();
+            unsynced.remove(old);
+        }
+    }
+
+    /** Records that WRITTEN, a file or directory which has just been
+     *  created in place, must be on disk before the journal commits.  Like
+     *  the other methods that add to the journal, may be called from
+     *  several threads at once. */
+    synchronized void sync(File written) {
+        unsynced.add(written);
+    }
+
+    /** Makes all the writes and deletions requested since the last commit
+     *  take effect, durably and all at once. */
+    synchronized void commit() {
+        if (pending.isEmpty() && unsynced.isEmpty()) {
+            return;
+        }
+        LinkedHashSet<File> dirs = new LinkedHashSet<>();
+        for (File f : unsynced) {
+            dirs.add(f.getParentFile());
+        }
+        barrier(unsynced, dirs);
+        unsynced.clear();
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        byte[] record = encode();
+        try (FileChannel channel = openLock()) {
+            channel.lock();
+            if (isFault("journal")) {
+                Utils.writeContents(file, (Object) truncated(record));
+                throw crash("journal");
+            }
+            Utils.writeContents(file, (Object) record);
+            barrier(List.of(file), List.of(gitletDir));
+            if (isFault("apply")) {
+                throw crash("apply");
+            }
+
+            dirs.clear();
+            boolean first = true;
+            for (Map.Entry<File, File> op : pending.entrySet()) {
+                apply(op.getKey(), op.getValue());
+                dirs.add(op.getKey().getParentFile());
+                if (first && isFault("rename")) {
+                    throw crash("rename");
+                }
+                first = false;
+            }
+            barrier(List.of(), dirs);
+            pending.clear();
+            file.delete();
+        } catch (IOException excp) {
+            throw Utils.error("Cannot lock %s: %s", lockFile,
+                              excp.getMessage());
+        }
+    }
+
+    /** Completes or discards the commit interrupted by a crash, if any,
+     *  and removes the temporary files of processes that are no longer
+     *  running.  Does nothing while another command is committing. */
+    void recover() {
+        if (!gitletDir.isDirectory()) {
+            return;
+        }
+        try (FileChannel channel = openLock();
+             FileLock lock = tryLock(channel)) {
+            if (lock == null) {
+                return;
+            }
+            if (file.isFile()) {
+                for (String[] op : decode(Utils.readContents(file))) {
+                    File target = Utils.join(gitletDir, op[0]);
+                    File temp =
+                        op[1] == null ? null : Utils.join(tmpDir, op[1]);
+                    if (temp == null || temp.isFile()) {
+                        apply(target, temp);
+                    }
+                }
+                file.delete();
+            }
+            File[] leftovers = tmpDir.listFiles();
+            if (leftovers != null) {
+                for (File f : leftovers) {
+                    if (isAbandoned(f.getName())) {
+                        f.delete();
+                    }
+                }
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot lock %s: %s", lockFile,
+                              excp.getMessage());
+        }
+    }
+
+    /** Returns a channel open on the lock file, creating it if need be. */
+    private FileChannel openLock() throws IOException {
+        return FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE,
+                                StandardOpenOption.WRITE);
+    }
+
+    /** Returns an exclusive lock on the file open on CHANNEL, or null if
+     *  another command holds it. */
+    private static FileLock tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        } catch (OverlappingFileLockException excp) {
+            return null;
+        }
+    }
+
+    /** Returns true iff the temporary file NAME was made by a process that
+     *  is no longer running, or by an earlier process with the same ID as
+     *  this one, which has not made any yet when it recovers. */
+    private static boolean isAbandoned(String name) {
+        String[] parts = name.split("-");
+        long pid;
+        try {
+            pid = parts.length == 3 ? Long.parseLong(parts[1]) : -1;
+        } catch (NumberFormatException excp) {
+            pid = -1;
+        }
+        return pid < 0 || pid == ProcessHandle.current().pid()
+            || ProcessHandle.of(pid).map(p -> !p.isAlive()).orElse(true);
+    }
+
+    /** Replaces TARGET with TEMP, or deletes TARGET if TEMP is null. */
+    private void apply(File target, File temp) {
+        try {
+            if (temp == null) {
+                Files.deleteIfExists(target.toPath());
+            } else {
+                target.getParentFile().mkdirs();
+                Files.move(temp.toPath(), target.toPath(),
+                           StandardCopyOption.REPLACE_EXISTING,
+                           StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot update %s: %s", target,
+                              excp.getMessage());
+        }
+    }
+
+    /** Returns the journal record for the pending operations: their
+     *  number, then each operation's type, the path of the file it
+     *  replaces or deletes relative to the .gitlet directory and, for a
+     *  replacement, the name of the temporary file, followed by a CRC-32
+     *  of everything before it. */
+    private byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = Codec.start(bytes, KIND, VERSION);
+        try {
+            out.writeInt(pending.size());
+            for (Map.Entry<File, File> op : pending.entrySet()) {
+                out.writeByte(op.getValue() == null ? DELETE : RENAME);
+                Codec.writeString(out, gitletDir.toPath()
+                                  .relativize(op.getKey().toPath()).toString());
+                if (op.getValue() != null) {
+                    Codec.writeString(out, op.getValue().getName());
+                }
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeLong(crc.getValue());
+        } catch (IOException excp) {
+            throw Utils.error("Internal error encoding journal.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Returns the operations in the journal record DATA as pairs of
+     *  target path and temporary file name (null for a deletion), or no
+     *  operations if the record is incomplete or damaged. */
+    private List<String[]> decode(byte[] data) {
+        List<String[]> ops = new ArrayList<>();
+        if (data.length < 4 + 8) {
+            return ops;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 8);
+        ByteBuffer in = ByteBuffer.wrap(data);
+        if (in.getLong(data.length - 8) != crc.getValue()) {
+            return ops;
+        }
+        in = Codec.open(data, KIND);
+        for (int n = in.getInt(); n > 0; n -= 1) {
+            int type = in.get();
+            String target = Codec.readString(in);
+            ops.add(new String[] {
+                target, type == RENAME ? Codec.readString(in) : null
+            });
+        }
+        return ops;
+    }
+
+    /** Flushes FILES and then the directories DIRS to disk.  The files are
+     *  flushed concurrently, which lets the file system fold them into as
+     *  few disk commits as it can. */
+    private static void barrier(Iterable<File> files, Iterable<File> dirs) {
+        List<File> all = new ArrayList<>();
+        files.forEach(all::add);
+        all.parallelStream().forEach(f -> force(f, !f.isDirectory()));
+        for (File dir : dirs) {
+            force(dir, false);
+        }
+    }
+
+    /** Flushes FILE to disk.  Failure to flush a directory, which some
+     *  systems do not allow, is ignored unless REQUIRED. */
+    private static void force(File file, boolean required) {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                                                    StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            if (required) {
+                throw Utils.error("Cannot flush %s: %s", file,
+                                  excp.getMessage());
+            }
+        }
+    }
+
+    /** Returns true iff a crash is to be simulated at step STEP. */
+    static boolean isFault(String step) {
+        return step.equals(System.getProperty(FAULT_PROPERTY));
+    }
+
+    /** Returns the first half of CONTENTS, as left by a crash while they
+     *  were being written. */
+    private static byte[] truncated(byte[] contents) {
+        byte[] result = new byte[contents.length / 2];
+        System.arraycopy(contents, 0, result, 0, result.length);
+        return result;
+    }
+
+    /** Returns the exception that simulates a crash at step STEP. */
+    static IllegalStateException crash(String step) {
+        return new IllegalStateException("simulated crash at " + step);
+    }
+}
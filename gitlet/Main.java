@@ -1,5 +1,6 @@
 package gitlet;
 import java.io.File;
+import java.util.Arrays;
 
 /** Driver class for Gitlet, a subset of the Git version-control system.
  *  @author
@@ -28,16 +29,15 @@ public class Main {
             failure("Please enter a command.");
         }
 
-        File repo = Utils.join(GITLET_DIR, "repository");
         Repository curRepo;
         if (args[0].equals("init")) {
             clearFolder(GITLET_DIR);
             curRepo = new Repository();
         } else {
-            if (!repo.exists()) {
+            curRepo = Repository.load(GITLET_DIR);
+            if (curRepo == null) {
                 failure("Not in an initialized Gitlet directory.");
             }
-            curRepo = Utils.readObject(repo, Repository.class);
         }
 
 
@@ -83,6 +83,18 @@ public class Main {
             case "merge":
                 merge(curRepo, args);
                 break;
+            case "migrate":
+                migrate(curRepo, args);
+                break;
+            case "repack":
+                repack(curRepo, args);
+                break;
+            case "train-dictionary":
+                trainDictionary(curRepo, args);
+                break;
+            case "gc":
+                gc(curRepo, args);
+                break;
             default:
                 failure("No command with that name exists.");
                 break;
@@ -93,8 +105,8 @@ public class Main {
 
 
     public static void add(Repository curRepo, String[] args) {
-        if (args.length == 2) {
-            curRepo.add(args[1]);
+        if (args.length >= 2) {
+            curRepo.add(Arrays.copyOfRange(args, 1, args.length));
         } else {
             failure("Incorrect operands.");
         }
@@ -162,6 +174,8 @@ public class Main {
     public static void find(Repository curRepo, String[] args) {
         if (args.length == 2) {
             curRepo.find(args[1]);
+        } else if (args.length == 3 && args[1].equals("--grep")) {
+            curRepo.findGrep(args[2]);
         } else {
             failure("Incorrect operands.");
         }
@@ -202,6 +216,54 @@ public class Main {
     }
 
 
+    public static void migrate(Repository curRepo, String[] args) {
+        if (args.length == 1) {
+            curRepo.migrate();
+        } else {
+            failure("Incorrect operands.");
+        }
+    }
+
+
+    public static void repack(Repository curRepo, String[] args) {
+        if (args.length == 1) {
+            curRepo.repack();
+        } else {
+            failure("Incorrect operands.");
+        }
+    }
+
+
+    public static void trainDictionary(Repository curRepo, String[] args) {
+        if (args.length == 1) {
+            curRepo.trainDictionary();
+        } else {
+            failure("Incorrect operands.");
+        }
+    }
+
+
+    public static void gc(Repository curRepo, String[] args) {
+        boolean dryRun = false, auto = false, pruneNow = false;
+        for (int i = 1; i < args.length; i += 1) {
+            switch (args[i]) {
+                case "--dry-run":
+                    dryRun = true;
+                    break;
+                case "--auto":
+                    auto = true;
+                    break;
+                case "--prune=now":
+                    pruneNow = true;
+                    break;
+                default:
+                    failure("Incorrect operands.");
+            }
+        }
+        curRepo.gc(dryRun, auto, pruneNow);
+    }
+
+
     private static void clearFolder(File folder) {
         File[] files = folder.listFiles();
         if (files != null) {
@@ -0,0 +1,911 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/** A table of the commits of a repository, holding the ID, time, parents
+ *  and message of each, and an index of their messages, for find.  It has
+ *  two parts: a base file, rewritten only when the log grows too large
+ *  (see needsCompaction) or when the repository is repacked, and a log to
+ *  which each new commit is appended.  A lookup searches the base file,
+ *  which it reads through a memory mapping, and scans the log.  The logs
+ *  print from the table, so that they read no commits.
+ *
+ *  The base file numbers the commits in order of ID, and maps terms to
+ *  the sorted lists of the numbers of the commits they occur in.  The
+ *  terms of a commit are a hash of its whole message, for finding exact
+ *  messages, and each distinct trigram (three consecutive characters) of
+ *  its message, for narrowing the commits whose messages can match a
+ *  regular expression to those containing every trigram of the literal
+ *  text it requires.  The messages themselves are kept too, so that
+ *  candidates are checked without reading commits.
+ *
+ *  The base file is a Codec record holding, after the header, the
+ *  number of commits, and then a column for each field of the commits:
+ *  the raw ID of each, its time in milliseconds, the numbers of its first
+ *  and second parents (-1 for none), and the offset of its message.
+ *  These are followed by the number of terms, the key offset and
+ *  postings offset of each term in order of key, and then three heaps: of
+ *  keys (a length byte followed by the key), of postings (a count
+ *  followed by the gaps between commit numbers as varints), and of
+ *  messages (a length followed by UTF-8 bytes), each preceded by its
+ *  size.  The log is a Codec header
+ *  followed by records holding a raw commit ID, a time, the number of
+ *  parents, their raw IDs, and a message as written by
+ *  Codec.writeString.  Each record is framed by its length before it and
+ *  its CRC-32 and length again after it, so that a record left partly
+ *  written by a crash is recognized, from either end, and ignored.
+ *  @author
+ */
+class MessageIndex {
+
+    /** Kind byte of the base file. */
+    private static final int KIND = 'F';
+    /** Kind byte of the log. */
+    private static final int LOG_KIND = 'L';
+    /** Version of both encodings. */
+    private static final int VERSION = 3;
+    /** Size of the log above which it should be merged into the base
+     *  file. */
+    static final long LOG_LIMIT = 256 << 10;
+    /** First byte of the key of a message hash. */
+    private static final byte MESSAGE_TERM = 'M';
+    /** First byte of the key of a trigram. */
+    private static final byte TRIGRAM_TERM = 'T';
+    /** Position of the column of IDs in the base file. */
+    private static final int ID_START = 8;
+    /** Number of parents of a commit the base file has room for. */
+    private static final int PARENT_SLOTS = 2;
+    /** Size of the record of a term in the base file. */
+    private static final int TERM_SIZE = 8;
+    /** Size of the header of the log. */
+    private static final int HEADER_SIZE = 4;
+    /** Size of the framing of a record of the log. */
+    private static final int FRAME_SIZE = 12;
+
+    /** The base file. */
+    private final File file;
+    /** The log. */
+    private final File log;
+    /** A mapping of FILE, or null if not yet mapped or there is none. */
+    private ByteBuffer map;
+    /** Number of commits in the base file. */
+    private int docCount;
+    /** Number of terms in the base file. */
+    private int termCount;
+    /** Positions in MAP of the columns of times, parents and message
+     *  offsets. */
+    private int timeStart, parentStart, offsetStart;
+    /** Positions in MAP of the term records and of the heaps of keys,
+     *  postings and messages. */
+    private int termStart, keyStart, postingStart, messageStart;
+    /** The commits of the log, by ID, read on first use. */
+    private TreeMap<String, Entry> logged;
+
+    /** The metadata and message of a commit. */
+    static class Entry {
+        /** The ID of the commit. */
+        final String id;
+        /** The time of the commit, in milliseconds since the epoch. */
+        final long time;
+        /** The IDs of its parents, first parent first; empty for the
+         *  initial commit. */
+        final String[] parents;
+        /** Its message. */
+        final String message;
+
+        /** The entry of the commit with the given ID, TIME, PARENTS and
+         *  MESSAGE. */
+        Entry(String id, long time, String[] parents, String message) {
+            this.id = id;
+            this.time = time;
+            this.parents = parents;
+            this.message = message;
+        }
+
+        /** The entry of COMMIT. */
+        Entry(Commit commit) {
+            this(commit.getcommitID(), commit.getCommitTime().getTime(),
+                 commit.getParent() == null ? new String[0]
+                 : commit.getParent(), commit.getMessage());
+        }
+    }
+
+    /** Receives commits from the table. */
+    interface Visitor {
+        /** Receives the commit with the given ID, TIME and MESSAGE. */
+        void visit(String id, long time, String message);
+    }
+
+    /** The index whose base file is FILE and whose log is LOG. */
+    MessageIndex(File file, File log) {
+        this.file = file;
+        this.log = log;
+    }
+
+    /** An index of the commits ENTRIES, a map from commit ID to entry,
+     *  held only in memory, as if they were all in the log.  It has no
+     *  files and cannot be appended to. */
+    MessageIndex(TreeMap<String, Entry> entries) {
+        this(null, null);
+        logged = entries;
+    }
+
+    /** Returns true iff the index has been created, by this version of
+     *  Gitlet. */
+    boolean exists() {
+        return (file.isFile() || log.isFile()) && isCurrent(file)
+            && isCurrent(log);
+    }
+
+    /** Returns true iff the commit with the given ID is in the table. */
+    boolean contains(String id) {
+        open();
+        return logged().containsKey(id) || map != null && find(id) >= 0;
+    }
+
+    /** Returns true iff the log has grown large enough that it should be
+     *  merged into the base file: past LOG_LIMIT bytes and past an eighth
+     *  of the base file, so that rewriting a large base file costs each
+     *  commit only a few times the work of indexing its own message. */
+    boolean needsCompaction() {
+        return exists()
+            && log.length() > Math.max(LOG_LIMIT, file.length() / 8);
+    }
+
+    /** Adds the commit described by ENTRY to the log, first cutting off
+     *  any partial record left at its end by a crash. */
+    void append(Entry entry) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            Codec.writeHash(out, entry.id);
+            out.writeLong(entry.time);
+            out.writeByte(entry.parents.length);
+            for (String parent : entry.parents) {
+                Codec.writeHash(out, parent);
+            }
+            Codec.writeString(out, entry.message);
+        } catch (IOException excp) {
+            throw Utils.error("Internal error encoding message log.");
+        }
+        byte[] payload = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payload.length
+                                                + FRAME_SIZE);
+        try (FileChannel channel =
+                 FileChannel.open(log.toPath(), StandardOpenOption.CREATE,
+                                  StandardOpenOption.READ,
+                                  StandardOpenOption.WRITE)) {
+            long end = validEnd(channel);
+            if (end == 0) {
+                ByteArrayOutputStream header = new ByteArrayOutputStream();
+                Codec.start(header, LOG_KIND, VERSION);
+                record.put(header.toByteArray());
+            }
+            record.putInt(payload.length).put(payload)
+                .putInt((int) crc.getValue()).putInt(payload.length).flip();
+            channel.truncate(end);
+            if (Journal.isFault("log")) {
+                record.limit(record.limit() / 2);
+                channel.write(record, end);
+                throw Journal.crash("log");
+            }
+            while (record.hasRemaining()) {
+                end += channel.write(record, end);
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write %s: %s", log, excp.getMessage());
+        }
+        if (logged != null) {
+            logged.put(entry.id, entry);
+        }
+    }
+
+    /** Returns the IDs of the commits whose message is MESSAGE, in
+     *  order. */
+    TreeSet<String> withMessage(String message) {
+        TreeSet<String> result = new TreeSet<>();
+        open();
+        if (map != null) {
+            for (int doc : postings(messageKey(message))) {
+                if (message(doc).equals(message)) {
+                    result.add(id(doc));
+                }
+            }
+        }
+        for (Entry entry : logged().values()) {
+            if (entry.message.equals(message)) {
+                result.add(entry.id);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the IDs of the commits with messages that contain a match
+     *  for PATTERN, in order.  Only the commits whose messages contain
+     *  every trigram of the literal text that PATTERN requires are
+     *  checked. */
+    TreeSet<String> matching(Pattern pattern) {
+        TreeSet<String> result = new TreeSet<>();
+        open();
+        if (map != null) {
+            for (int doc : candidates(pattern.pattern())) {
+                if (pattern.matcher(message(doc)).find()) {
+                    result.add(id(doc));
+                }
+            }
+        }
+        for (Entry entry : logged().values()) {
+            if (pattern.matcher(entry.message).find()) {
+                result.add(entry.id);
+            }
+        }
+        return result;
+    }
+
+    /** Passes each commit in the table to VISITOR, in order of ID. */
+    void forEach(Visitor visitor) {
+        open();
+        int doc = 0;
+        for (Entry entry : logged().values()) {
+            byte[] raw = Utils.hexToBytes(entry.id);
+            for (; doc < docCount && compareID(doc, raw) < 0; doc += 1) {
+                visitor.visit(id(doc), time(doc), message(doc));
+            }
+            visitor.visit(entry.id, entry.time, entry.message);
+        }
+        for (; doc < docCount; doc += 1) {
+            visitor.visit(id(doc), time(doc), message(doc));
+        }
+    }
+
+    /** Passes to VISITOR the commit with the given ID and then each of its
+     *  first parents in turn, back to the initial commit. */
+    void walk(String id, Visitor visitor) {
+        open();
+        while (logged().containsKey(id)) {
+            Entry entry = logged().get(id);
+            visitor.visit(entry.id, entry.time, entry.message);
+            if (entry.parents.length == 0) {
+                return;
+            }
+            id = entry.parents[0];
+        }
+        for (int doc = find(id); doc >= 0; doc = parent(doc)) {
+            visitor.visit(id(doc), time(doc), message(doc));
+        }
+    }
+
+    /** Returns a map from the ID of each commit in the index to its
+     *  entry. */
+    TreeMap<String, Entry> entries() {
+        TreeMap<String, Entry> result = new TreeMap<>();
+        open();
+        for (int doc = 0; doc < docCount; doc += 1) {
+            String[] parents = new String[PARENT_SLOTS];
+            int n;
+            for (n = 0; n < PARENT_SLOTS && parent(doc, n) >= 0; n += 1) {
+                parents[n] = id(parent(doc, n));
+            }
+            Entry entry = new Entry(id(doc), time(doc),
+                                    Arrays.copyOf(parents, n), message(doc));
+            result.put(entry.id, entry);
+        }
+        result.putAll(logged());
+        return result;
+    }
+
+    /** Returns the encoding of a base file holding the commits ENTRIES,
+     *  a map from commit ID to entry.  A parent missing from ENTRIES is
+     *  recorded as none. */
+    static byte[] encode(TreeMap<String, Entry> entries) {
+        String[] ids = entries.keySet().toArray(new String[0]);
+        HashMap<String, int[]> postings = new HashMap<>();
+        int doc = 0;
+        for (Entry entry : entries.values()) {
+            String message = entry.message;
+            /* Trigrams are collected as themselves and message hashes as
+             * their (longer) keys, and trigrams turned into keys at the
+             * end, once each. */
+            addPosting(postings, latin1(messageKey(message)), doc);
+            for (int i = 0; i + 3 <= message.length(); i += 1) {
+                addPosting(postings, message.substring(i, i + 3), doc);
+            }
+            doc += 1;
+        }
+        TreeMap<String, int[]> terms = new TreeMap<>();
+        for (Map.Entry<String, int[]> e : postings.entrySet()) {
+            String term = e.getKey();
+            terms.put(term.length() == 3 ? latin1(trigramKey(term)) : term,
+                      e.getValue());
+        }
+        String[] keys = terms.keySet().toArray(new String[0]);
+        postings = new HashMap<>(terms);
+
+        ByteArrayOutputStream keyHeap = new ByteArrayOutputStream();
+        ByteArrayOutputStream postingHeap = new ByteArrayOutputStream();
+        ByteArrayOutputStream messageHeap = new ByteArrayOutputStream();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = Codec.start(bytes, KIND, VERSION);
+        try {
+            DataOutputStream postingOut = new DataOutputStream(postingHeap);
+            DataOutputStream messageOut = new DataOutputStream(messageHeap);
+            out.writeInt(ids.length);
+            for (String id : ids) {
+                Codec.writeHash(out, id);
+            }
+            for (Entry entry : entries.values()) {
+                out.writeLong(entry.time);
+            }
+            for (Entry entry : entries.values()) {
+                for (int k = 0; k < PARENT_SLOTS; k += 1) {
+                    out.writeInt(k < entry.parents.length
+                                 ? Math.max(-1, Arrays.binarySearch(
+                                                ids, entry.parents[k]))
+                                 : -1);
+                }
+            }
+            for (Entry entry : entries.values()) {
+                out.writeInt(messageHeap.size());
+                Codec.writeString(messageOut, entry.message);
+            }
+            out.writeInt(keys.length);
+            for (String key : keys) {
+                out.writeInt(keyHeap.size());
+                out.writeInt(postingHeap.size());
+                byte[] raw = key.getBytes(StandardCharsets.ISO_8859_1);
+                keyHeap.write(raw.length);
+                keyHeap.write(raw);
+                int[] list = postings.get(key);
+                postingOut.writeInt(list[0]);
+                int last = 0;
+                for (int i = 1; i <= list[0]; i += 1) {
+                    writeVarint(postingHeap, list[i] - last);
+                    last = list[i];
+                }
+            }
+            for (ByteArrayOutputStream heap
+                     : List.of(keyHeap, postingHeap, messageHeap)) {
+                out.writeInt(heap.size());
+                heap.writeTo(out);
+            }
+            out.flush();
+        } catch (IOException excp) {
+            throw Utils.error("Internal error encoding message index.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Adds DOC to the end of the postings list in POSTINGS for TERM,
+     *  unless it is already there.  A list is an array whose first element
+     *  is the number of commits in it. */
+    private static void addPosting(HashMap<String, int[]> postings,
+                                   String term, int doc) {
+        int[] list = postings.get(term);
+        if (list == null) {
+            list = new int[] { 0, 0, 0, 0 };
+            postings.put(term, list);
+        } else if (list[list[0]] == doc) {
+            return;
+        } else if (list[0] + 1 == list.length) {
+            list = Arrays.copyOf(list, 2 * list.length);
+            postings.put(term, list);
+        }
+        list[0] += 1;
+        list[list[0]] = doc;
+    }
+
+    /** Returns the pieces of literal text that every match for the
+     *  regular expression REGEX must contain, or null if they cannot be
+     *  found simply (as when REGEX has alternatives, flags or back
+     *  references).  Text that is optional or repeated, groups, character
+     *  classes, and escapes other than of punctuation end a piece, and
+     *  optional groups are skipped. */
+    static List<String> literals(String regex) {
+        if (regex.contains("|") || regex.contains("(?")) {
+            return null;
+        }
+        List<String> result = new ArrayList<>();
+        StringBuilder run = new StringBuilder();
+        int n = regex.length();
+        int i = 0;
+        while (i < n) {
+            char c = regex.charAt(i);
+            String literal = null;
+            int next = i + 1;
+            if (c == '\\' && i + 1 < n) {
+                char e = regex.charAt(i + 1);
+                next = i + 2;
+                if (e == 'Q') {
+                    int end = regex.indexOf("\\E", next);
+                    end = end < 0 ? n : end;
+                    literal = regex.substring(next, end);
+                    next = Math.min(n, end + 2);
+                } else if (!Character.isLetterOrDigit(e)) {
+                    literal = String.valueOf(e);
+                } else if (e >= '1' && e <= '9' || e == 'k') {
+                    return null;
+                } else {
+                    next = escapeEnd(regex, next, e);
+                }
+            } else if (c == '[') {
+                next = classEnd(regex, i);
+            } else if (c == '(') {
+                int end = groupEnd(regex, i);
+                if (end < n && "*?{".indexOf(regex.charAt(end)) >= 0) {
+                    next = end;
+                }
+            } else if (c == '{') {
+                int end = regex.indexOf('}', i);
+                next = end < 0 ? n : end + 1;
+            } else if ("\\().^$*+?".indexOf(c) < 0) {
+                literal = String.valueOf(c);
+            }
+            char quantifier = next < n ? regex.charAt(next) : 0;
+            if (literal == null) {
+                flush(run, result);
+            } else if (quantifier == '*' || quantifier == '?'
+                       || quantifier == '{') {
+                run.append(literal, 0, literal.length() - 1);
+                flush(run, result);
+            } else if (quantifier == '+') {
+                run.append(literal);
+                flush(run, result);
+            } else {
+                run.append(literal);
+            }
+            i = next;
+        }
+        flush(run, result);
+        return result;
+    }
+
+    /** Returns the numbers of the commits in the base file whose messages
+     *  may match the regular expression REGEX. */
+    private int[] candidates(String regex) {
+        List<String> literals = literals(regex);
+        TreeSet<String> trigrams = new TreeSet<>();
+        if (literals != null) {
+            for (String literal : literals) {
+                for (int i = 0; i + 3 <= literal.length(); i += 1) {
+                    trigrams.add(literal.substring(i, i + 3));
+                }
+            }
+        }
+        if (trigrams.isEmpty()) {
+            int[] all = new int[docCount];
+            Arrays.setAll(all, k -> k);
+            return all;
+        }
+        List<int[]> lists = new ArrayList<>();
+        for (String trigram : trigrams) {
+            int[] list = postings(trigramKey(trigram));
+            if (list.length == 0) {
+                return list;
+            }
+            lists.add(list);
+        }
+        lists.sort(Comparator.comparingInt(list -> list.length));
+        int[] result = lists.get(0);
+        for (int k = 1; k < lists.size() && result.length > 0; k += 1) {
+            result = intersect(result, lists.get(k));
+        }
+        return result;
+    }
+
+    /** Returns the numbers, in order, of the commits in the base file
+     *  with the term KEY. */
+    private int[] postings(byte[] key) {
+        int lo = 0, hi = termCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareKey(mid, key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        if (lo == termCount || compareKey(lo, key) != 0) {
+            return new int[0];
+        }
+        int pos = postingStart + map.getInt(termStart + lo * TERM_SIZE + 4);
+        int[] result = new int[map.getInt(pos)];
+        pos += 4;
+        int doc = 0;
+        for (int i = 0; i < result.length; i += 1) {
+            int gap = 0;
+            for (int shift = 0;; shift += 7) {
+                byte b = map.get(pos++);
+                gap |= (b & 0x7f) << shift;
+                if (b >= 0) {
+                    break;
+                }
+            }
+            doc += gap;
+            result[i] = doc;
+        }
+        return result;
+    }
+
+    /** Compares the key of term number K of the base file with KEY, as
+     *  unsigned bytes. */
+    private int compareKey(int k, byte[] key) {
+        int pos = keyStart + map.getInt(termStart + k * TERM_SIZE);
+        int len = map.get(pos) & 0xff;
+        for (int i = 0; i < len && i < key.length; i += 1) {
+            int c = Integer.compare(map.get(pos + 1 + i) & 0xff, key[i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return Integer.compare(len, key.length);
+    }
+
+    /** Returns the number of the commit in the base file with the given
+     *  ID, or -1 if there is none. */
+    private int find(String id) {
+        byte[] raw = Utils.hexToBytes(id);
+        int lo = 0, hi = docCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compareID(mid, raw);
+            if (c == 0) {
+                return mid;
+            } else if (c < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Compares the ID of commit number DOC of the base file with the raw
+     *  ID RAW, as unsigned bytes. */
+    private int compareID(int doc, byte[] raw) {
+        int pos = ID_START + doc * Codec.HASH_SIZE;
+        for (int i = 0; i < raw.length; i += 1) {
+            int c = Integer.compare(map.get(pos + i) & 0xff, raw[i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the ID of commit number DOC of the base file. */
+    private String id(int doc) {
+        byte[] id = new byte[Codec.HASH_SIZE];
+        map.get(ID_START + doc * Codec.HASH_SIZE, id);
+        return Utils.bytesToHex(id);
+    }
+
+    /** Returns the time of commit number DOC of the base file. */
+    private long time(int doc) {
+        return map.getLong(timeStart + doc * 8);
+    }
+
+    /** Returns the number of the first parent of commit number DOC of the
+     *  base file, or -1 if it has none. */
+    private int parent(int doc) {
+        return parent(doc, 0);
+    }
+
+    /** Returns the number of parent K of commit number DOC of the base
+     *  file, or -1 if it has none. */
+    private int parent(int doc, int k) {
+        return map.getInt(parentStart + (doc * PARENT_SLOTS + k) * 4);
+    }
+
+    /** Returns the message of commit number DOC of the base file. */
+    private String message(int doc) {
+        int pos = messageStart + map.getInt(offsetStart + doc * 4);
+        byte[] bytes = new byte[map.getInt(pos)];
+        map.get(pos + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Maps the base file, if there is one and it is not yet mapped, and
+     *  finds its sections. */
+    private void open() {
+        if (map != null || file == null || !file.isFile()) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                                                    StandardOpenOption.READ)) {
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                              channel.size());
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read %s: %s", file, excp.getMessage());
+        }
+        if (map.getShort(0) != Codec.MAGIC || map.get(2) != KIND
+            || map.get(3) != VERSION) {
+            throw Utils.error("Unrecognized message index format.");
+        }
+        docCount = map.getInt(4);
+        timeStart = ID_START + docCount * Codec.HASH_SIZE;
+        parentStart = timeStart + docCount * 8;
+        offsetStart = parentStart + docCount * PARENT_SLOTS * 4;
+        int pos = offsetStart + docCount * 4;
+        termCount = map.getInt(pos);
+        termStart = pos + 4;
+        keyStart = termStart + termCount * TERM_SIZE + 4;
+        postingStart = keyStart + map.getInt(keyStart - 4) + 4;
+        messageStart = postingStart + map.getInt(postingStart - 4) + 4;
+    }
+
+    /** Returns the commits of the log, by ID.  A damaged record, which
+     *  can only be the last, is ignored. */
+    private TreeMap<String, Entry> logged() {
+        if (logged == null) {
+            logged = new TreeMap<>();
+            byte[] data = log.isFile() ? Utils.readContents(log) : new byte[0];
+            if (data.length >= HEADER_SIZE) {
+                ByteBuffer all = Codec.open(data, LOG_KIND);
+                for (int pos = HEADER_SIZE, size;
+                     (size = recordSize(all, pos)) > 0; pos += size) {
+                    ByteBuffer in = all.slice(pos + 4, size - FRAME_SIZE);
+                    String id = Codec.readHash(in);
+                    long time = in.getLong();
+                    String[] parents = new String[in.get()];
+                    for (int k = 0; k < parents.length; k += 1) {
+                        parents[k] = Codec.readHash(in);
+                    }
+                    logged.put(id, new Entry(id, time, parents,
+                                             Codec.readString(in)));
+                }
+            }
+        }
+        return logged;
+    }
+
+    /** Returns the size, framing included, of the intact record of the
+     *  log at position POS of DATA, or 0 if there is none there. */
+    private static int recordSize(ByteBuffer data, int pos) {
+        int room = data.limit() - pos - FRAME_SIZE;
+        if (room < 0) {
+            return 0;
+        }
+        int length = data.getInt(pos);
+        if (length < 0 || length > room
+            || data.getInt(pos + length + 8) != length) {
+            return 0;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data.slice(pos + 4, length));
+        if (data.getInt(pos + length + 4) != (int) crc.getValue()) {
+            return 0;
+        }
+        return length + FRAME_SIZE;
+    }
+
+    /** Returns the length of the part of the log open on CHANNEL that
+     *  holds its header and intact records, which is all of it unless a
+     *  crash interrupted an append.  Only the last record is read unless
+     *  it is damaged. */
+    private static long validEnd(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size < HEADER_SIZE) {
+            return 0;
+        }
+        if (size == HEADER_SIZE) {
+            return size;
+        }
+        if (size >= HEADER_SIZE + FRAME_SIZE) {
+            int length = read(channel, size - 4, 4).getInt(0);
+            long start = size - FRAME_SIZE - length;
+            if (length >= 0 && start >= HEADER_SIZE
+                && recordSize(read(channel, start, length + FRAME_SIZE), 0)
+                   == length + FRAME_SIZE) {
+                return size;
+            }
+        }
+        ByteBuffer all = read(channel, 0, (int) size);
+        int pos = HEADER_SIZE;
+        for (int n = recordSize(all, pos); n > 0; n = recordSize(all, pos)) {
+            pos += n;
+        }
+        return pos;
+    }
+
+    /** Returns the SIZE bytes at position POS of the file open on
+     *  CHANNEL. */
+    private static ByteBuffer read(FileChannel channel, long pos, int size)
+        throws IOException {
+        ByteBuffer result = ByteBuffer.allocate(size);
+        while (result.hasRemaining()) {
+            if (channel.read(result, pos + result.position()) < 0) {
+                break;
+            }
+        }
+        return result.clear();
+    }
+
+    /** Returns true iff FILE is absent or was written by this version of
+     *  Gitlet. */
+    private static boolean isCurrent(File file) {
+        if (!file.isFile()) {
+            return true;
+        }
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            byte[] header = in.readNBytes(4);
+            return header.length == 4 && header[3] == VERSION;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Returns the key of the term for the whole of MESSAGE. */
+    private static byte[] messageKey(String message) {
+        byte[] key = new byte[9];
+        key[0] = MESSAGE_TERM;
+        System.arraycopy(Utils.hexToBytes(Utils.sha1(message)), 0, key, 1, 8);
+        return key;
+    }
+
+    /** Returns the key of the term for TRIGRAM. */
+    private static byte[] trigramKey(String trigram) {
+        byte[] text = trigram.getBytes(StandardCharsets.UTF_8);
+        byte[] key = new byte[text.length + 1];
+        key[0] = TRIGRAM_TERM;
+        System.arraycopy(text, 0, key, 1, text.length);
+        return key;
+    }
+
+    /** Returns KEY as a string of the characters with the values of its
+     *  bytes, which sort as the bytes do. */
+    private static String latin1(byte[] key) {
+        return new String(key, StandardCharsets.ISO_8859_1);
+    }
+
+    /** Writes N to OUT as a varint: seven bits a byte, least significant
+     *  first, with the top bit set on all bytes but the last. */
+    private static void writeVarint(ByteArrayOutputStream out, int n) {
+        while ((n & ~0x7f) != 0) {
+            out.write((n & 0x7f) | 0x80);
+            n >>>= 7;
+        }
+        out.write(n);
+    }
+
+    /** Returns the members common to the sorted arrays A and B. */
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int n = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length;) {
+            if (a[i] < b[j]) {
+                i += 1;
+            } else if (a[i] > b[j]) {
+                j += 1;
+            } else {
+                result[n++] = a[i];
+                i += 1;
+                j += 1;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Returns the position just after the character class starting at
+     *  position START of REGEX. */
+    private static int classEnd(String regex, int start) {
+        int depth = 0;
+        int i = start;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            if (c == '[') {
+                depth += 1;
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == '^') {
+                    i += 1;
+                }
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == ']') {
+                    i += 1;
+                }
+            } else if (c == ']') {
+                depth -= 1;
+                if (depth == 0) {
+                    return i + 1;
+                }
+            }
+            i += 1;
+        }
+        return regex.length();
+    }
+
+    /** Returns the position just after the group starting at position
+     *  START of REGEX. */
+    private static int groupEnd(String regex, int start) {
+        int depth = 0;
+        int i = start;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            if (c == '[') {
+                i = classEnd(regex, i);
+                continue;
+            }
+            if (c == '(') {
+                depth += 1;
+            } else if (c == ')') {
+                depth -= 1;
+                if (depth == 0) {
+                    return i + 1;
+                }
+            }
+            i += 1;
+        }
+        return regex.length();
+    }
+
+    /** Returns the position in REGEX just after the escape whose letter
+     *  or digit, E, is just before position START: past the digits of a
+     *  hexadecimal (x or u) or octal (0) escape, the character named by a
+     *  control escape (c), and the name or property of an N, p or P
+     *  escape. */
+    private static int escapeEnd(String regex, int start, char e) {
+        int n = regex.length();
+        int end = start;
+        switch (e) {
+        case 'x':
+            if (end < n && regex.charAt(end) == '{') {
+                end = regex.indexOf('}', end) + 1;
+                return end == 0 ? n : end;
+            }
+            return Math.min(n, end + 2);
+        case 'u':
+            return Math.min(n, end + 4);
+        case '0':
+            while (end < n && end < start + 3 && regex.charAt(end) >= '0'
+                   && regex.charAt(end) <= '7') {
+                end += 1;
+            }
+            return end;
+        case 'c':
+            return Math.min(n, end + 1);
+        case 'N': case 'p': case 'P':
+            if (end < n && regex.charAt(end) == '{') {
+                end = regex.indexOf('}', end) + 1;
+                return end == 0 ? n : end;
+            }
+            return e == 'N' ? end : Math.min(n, end + 1);
+        default:
+            return end;
+        }
+    }
+
+    /** Adds the text in RUN to RESULT, if there is any, and empties
+     *  RUN. */
+    private static void flush(StringBuilder run, List<String> result) {
+        if (run.length() > 0) {
+            result.add(run.toString());
+            run.setLength(0);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package gitlet;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/** A cache of decoded objects, bounded by their total weight in bytes.
+ *  Values are held strongly, in least-recently-used order, until their
+ *  total weight exceeds the capacity; the least recently used are then
+ *  spilled to soft references, which the garbage collector clears only
+ *  when memory runs short.  A spilled value that is still there when next
+ *  asked for is held strongly again.  The cache counts the lookups that
+ *  found their value held strongly (hits), those that found it among the
+ *  spilled values (rescues), and those that did not find it (misses), so
+ *  that a cache too small for its work shows up as rescues rather than
+ *  hits.
+ *  @author
+ */
+class ObjectCache<K, V> {
+
+    /** Largest total weight of the values held strongly. */
+    private final long capacity;
+    /** Returns the weight of a value, in bytes. */
+    private final ToLongFunction<V> weigher;
+
+    /** The values held strongly, from least to most recently used. */
+    private final LinkedHashMap<K, V> entries =
+        new LinkedHashMap<>(16, 0.75f, true);
+    /** The values spilled to soft references. */
+    private final HashMap<K, Spilled<K, V>> spilled = new HashMap<>();
+    /** The queue to which cleared members of SPILLED are added. */
+    private final ReferenceQueue<V> cleared = new ReferenceQueue<>();
+    /** Total weight of ENTRIES. */
+    private long weight;
+    /** Number of lookups that found their value held strongly. */
+    private long hits;
+    /** Number of lookups that found their value spilled. */
+    private long rescues;
+    /** Number of lookups that did not find their value. */
+    private long misses;
+
+    /** A soft reference to a spilled value, which remembers its key. */
+    private static class Spilled<K, V> extends SoftReference<V> {
+        /** The key of the value. */
+        private final K key;
+
+        /** A reference to VALUE, the value for KEY, enqueued on QUEUE once
+         *  cleared. */
+        Spilled(K key, V value, ReferenceQueue<V> queue) {
+            super(value, queue);
+            this.key = key;
+        }
+    }
+
+    /** An empty cache holding values of total weight up to CAPACITY
+     *  strongly, as weighed by WEIGHER. */
+    ObjectCache(long capacity, ToLongFunction<V> weigher) {
+        this.capacity = capacity;
+        this.weigher = weigher;
+    }
+
+    /** Returns the value for KEY, or null if it is not cached. */
+    V get(K key) {
+        purge();
+        V value = entries.get(key);
+        if (value != null) {
+            hits += 1;
+            return value;
+        }
+        Spilled<K, V> ref = spilled.remove(key);
+        value = ref == null ? null : ref.get();
+        if (value == null) {
+            misses += 1;
+        } else {
+            rescues += 1;
+            put(key, value);
+        }
+        return value;
+    }
+
+    /** Caches VALUE as the value for KEY. */
+    void put(K key, V value) {
+        purge();
+        spilled.remove(key);
+        V old = entries.put(key, value);
+        if (old != null) {
+            weight -= weigher.applyAsLong(old);
+        }
+        weight += weigher.applyAsLong(value);
+        Iterator<Map.Entry<K, V>> eldest = entries.entrySet().iterator();
+        while (weight > capacity && eldest.hasNext()) {
+            Map.Entry<K, V> e = eldest.next();
+            weight -= weigher.applyAsLong(e.getValue());
+            spilled.put(e.getKey(),
+                        new Spilled<>(e.getKey(), e.getValue(), cleared));
+            eldest.remove();
+        }
+    }
+
+    /** Removes every value from the cache. */
+    void clear() {
+        entries.clear();
+        spilled.clear();
+        weight = 0;
+        purge();
+    }
+
+    /** Returns the number of lookups that found their value held
+     *  strongly. */
+    long hits() {
+        return hits;
+    }
+
+    /** Returns the number of lookups that found their value among the
+     *  spilled values. */
+    long rescues() {
+        return rescues;
+    }
+
+    /** Returns the number of lookups that did not find their value. */
+    long misses() {
+        return misses;
+    }
+
+    /** Returns the total weight of the values held strongly. */
+    long weight() {
+        return weight;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d hits, %d rescues, %d misses, %d bytes held",
+                             hits, rescues, misses, weight);
+    }
+
+    /** Forgets the spilled values that have been cleared. */
+    @SuppressWarnings("unchecked")
+    private void purge() {
+        for (Object ref = cleared.poll(); ref != null; ref = cleared.poll()) {
+            Spilled<K, V> spill = (Spilled<K, V>) ref;
+            if (spilled.get(spill.key) == spill) {
+                spilled.remove(spill.key);
+            }
+        }
+    }
+}
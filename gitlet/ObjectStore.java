@@ -0,0 +1,519 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/** A content-addressed store of objects of one type.  Since an ID
+ *  determines its contents, an object is written at most once.  New
+ *  objects are written loose, each in a file named by its ID.  Loose
+ *  objects are fanned out over subdirectories of DIR named by the first
+ *  two hex digits of their IDs, so that no one directory grows large and
+ *  an ID lookup only has to consult one subdirectory.  Loose objects are
+ *  zlib-compressed, optionally with a preset ZlibDictionary, and are
+ *  compressed and decompressed as streams so that no large object has to
+ *  be held in memory.  The repack method moves loose objects into a Pack
+ *  shared with the other stores.
+ *  @author
+ */
+class ObjectStore {
+
+    /** Length of the subdirectory names used to fan out objects. */
+    static final int FANOUT_LENGTH = 2;
+
+    /** The fan-out subdirectory counted by estimateLooseCount. */
+    private static final String SAMPLE_FAN = "17";
+
+    /** Size of the buffers used to stream objects. */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** Size of the smallest loose object read through a memory mapping. */
+    private static final int MAP_THRESHOLD = 1 << 20;
+
+    /** The directory holding the loose objects. */
+    private final File dir;
+
+    /** The pack holding the packed objects. */
+    private final Pack pack;
+
+    /** The type of this store's objects within PACK. */
+    private final int type;
+
+    /** The preset dictionaries for compressing loose objects, or null if
+     *  they are compressed without one. */
+    private final ZlibDictionary dictionaries;
+
+    /** The journal that new loose objects must reach the disk before. */
+    private final Journal journal;
+
+    /** A store whose loose objects live in DIR, compressed using
+     *  DICTIONARIES (if not null), and whose packed objects are the
+     *  objects of type TYPE in PACK.  New loose objects are flushed to
+     *  disk when JOURNAL next commits. */
+    ObjectStore(File dir, Pack pack, int type, ZlibDictionary dictionaries,
+                Journal journal) {
+        this.dir = dir;
+        this.pack = pack;
+        this.type = type;
+        this.dictionaries = dictionaries;
+        this.journal = journal;
+    }
+
+    /** Returns true iff an object with the given ID is present. */
+    boolean contains(String id) {
+        return fileFor(id).isFile() || pack.contains(id, type);
+    }
+
+    /** Stores CONTENTS under ID, unless an object with that ID is
+     *  already present. */
+    void write(String id, byte[] contents) {
+        write(id, new ByteArrayInputStream(contents));
+    }
+
+    /** Stores the remaining contents of IN under ID, unless an object with
+     *  that ID is already present.  The object is compressed into a
+     *  temporary file that is then renamed, so a partly written object is
+     *  never visible under its ID. */
+    void write(String id, InputStream in) {
+        if (!contains(id)) {
+            install(id, compress(in, null));
+        }
+    }
+
+    /** Stores the remaining contents of IN under their hash, as computed
+     *  by DIGEST, unless an object with that ID is already present, and
+     *  returns the ID.  IN is read once, hashing and compressing each
+     *  buffer as it goes. */
+    String writeHashed(InputStream in, MessageDigest digest) {
+        File temp = compress(in, digest);
+        String id = Hasher.finish(digest);
+        if (contains(id)) {
+            temp.delete();
+        } else {
+            install(id, temp);
+        }
+        return id;
+    }
+
+    /** Returns the contents of the object with the given ID.  Throws
+     *  IllegalArgumentException if there is no such object. */
+    byte[] read(String id) {
+        try (InputStream in = open(id)) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read object %s: %s", id,
+                              excp.getMessage());
+        }
+    }
+
+    /** Writes the contents of the object with the given ID to FILE,
+     *  creating or replacing it as needed.  Large loose objects and packed
+     *  objects are decompressed straight from a mapping of the file
+     *  holding them into a channel, as for replaceFile. */
+    void copyTo(String id, File file) {
+        File loose = fileFor(id);
+        if (!loose.isFile() && !pack.contains(id, type)) {
+            throw new IllegalArgumentException("no object " + id);
+        }
+        replaceFile(file, out -> {
+            if (loose.length() >= MAP_THRESHOLD) {
+                copyMapped(loose, out);
+            } else if (loose.isFile()) {
+                copyTo(id, Channels.newOutputStream(out));
+            } else if (!pack.copyTo(id, type, out)) {
+                throw new IllegalArgumentException("no object " + id);
+            }
+        });
+    }
+
+    /** Writes a file's new contents to OUT. */
+    interface ContentWriter {
+        /** Writes the contents to OUT. */
+        void writeTo(FileChannel out) throws IOException;
+    }
+
+    /** Replaces the contents of FILE, creating it if need be, by those
+     *  WRITER writes.  They go first to a temporary file beside FILE that
+     *  is then renamed over it, so that FILE is left as it was if they
+     *  cannot all be written. */
+    static void replaceFile(File file, ContentWriter writer) {
+        File temp = new File(file.getAbsoluteFile().getParentFile(),
+                             "." + file.getName() + ".tmp");
+        boolean done = false;
+        try {
+            try (FileChannel out =
+                     FileChannel.open(temp.toPath(), StandardOpenOption.WRITE,
+                                      StandardOpenOption.CREATE,
+                                      StandardOpenOption.TRUNCATE_EXISTING)) {
+                writer.writeTo(out);
+            }
+            Files.move(temp.toPath(), file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+            done = true;
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write %s: %s", file, excp.getMessage());
+        } finally {
+            if (!done) {
+                temp.delete();
+            }
+        }
+    }
+
+    /** Writes the contents of the loose object FILE to OUT by way of a
+     *  mapping of FILE. */
+    private void copyMapped(File file, FileChannel out) throws IOException {
+        try (FileChannel in = FileChannel.open(file.toPath(),
+                                               StandardOpenOption.READ)) {
+            ByteBuffer map = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            int cmf = map.get(0) & 0xff;
+            int flg = map.get(1) & 0xff;
+            if (!isZlibHeader(cmf, flg)) {
+                in.transferTo(0, in.size(), out);
+            } else {
+                inflate(map, out, dictionaries == null ? null
+                        : dictionaries::forChecksum);
+            }
+        }
+    }
+
+    /** Decompresses the zlib stream in the remaining bytes of IN to OUT,
+     *  using DICTIONARIES (if not null) to find the preset dictionary with
+     *  a given checksum when the stream needs one. */
+    static void inflate(ByteBuffer in, WritableByteChannel out,
+                        IntFunction<byte[]> dictionaries) throws IOException {
+        Inflater inflater = new Inflater();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try {
+            inflater.setInput(in);
+            while (!inflater.finished()) {
+                if (inflater.inflate(buffer) == 0) {
+                    if (inflater.needsDictionary() && dictionaries != null) {
+                        inflater.setDictionary(
+                            dictionaries.apply(inflater.getAdler()));
+                    } else if (inflater.needsInput()
+                               || inflater.needsDictionary()) {
+                        throw new IOException("truncated object");
+                    }
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                buffer.clear();
+            }
+        } catch (DataFormatException excp) {
+            throw new IOException("corrupt object");
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /** Writes the contents of the object with the given ID to OUT. */
+    void copyTo(String id, OutputStream out) throws IOException {
+        try (InputStream in = open(id)) {
+            in.transferTo(out);
+        }
+    }
+
+    /** Returns a stream of the contents of the object with the given ID.
+     *  Throws IllegalArgumentException if there is no such object. */
+    InputStream open(String id) throws IOException {
+        File file = fileFor(id);
+        if (file.isFile()) {
+            return openLoose(file);
+        }
+        byte[] contents = pack.read(id, type);
+        if (contents == null) {
+            throw new IllegalArgumentException("no object " + id);
+        }
+        return new ByteArrayInputStream(contents);
+    }
+
+    /** Returns the IDs of all objects in the store, in lexicographic
+     *  order. */
+    List<String> ids() {
+        return idsWithPrefix("");
+    }
+
+    /** Returns the IDs of all objects whose IDs start with PREFIX, in
+     *  lexicographic order. */
+    List<String> idsWithPrefix(String prefix) {
+        TreeSet<String> result = new TreeSet<>(looseIdsWithPrefix(prefix));
+        result.addAll(pack.idsWithPrefix(prefix, type));
+        return new ArrayList<>(result);
+    }
+
+    /** Moves the loose objects whose IDs satisfy INCLUDE into the pack,
+     *  returning the number of objects moved.  NAMES maps the IDs of
+     *  objects to the names of files they are versions of, if known.
+     *  Objects are packed grouped by file name and then from largest to
+     *  smallest, so that the pack can encode each version as a delta
+     *  against a similar one. */
+    int repack(Map<String, String> names, Predicate<String> include) {
+        List<String> loose = looseIdsWithPrefix("");
+        loose.removeIf(include.negate());
+        loose.sort(Comparator
+                   .comparing((String id) -> names.getOrDefault(id, ""))
+                   .thenComparing(id -> -fileFor(id).length()));
+        pack.append(loose, type, this::read);
+        for (String id : loose) {
+            File file = fileFor(id);
+            file.delete();
+            file.getParentFile().delete();
+        }
+        return loose.size();
+    }
+
+    /** Writes the packed objects whose IDs are not in LIVE out again as
+     *  loose objects, so that they are kept for as long as new unreachable
+     *  objects are once the pack no longer holds them, and returns the
+     *  number written. */
+    int loosen(Set<String> live) {
+        int count = 0;
+        for (String id : pack.idsWithPrefix("", type)) {
+            if (!live.contains(id) && !fileFor(id).isFile()) {
+                install(id, compress(
+                    new ByteArrayInputStream(pack.read(id, type)), null));
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    /** Returns the files of the loose objects whose IDs are not in LIVE,
+     *  and the temporary files left by interrupted writes, that were last
+     *  modified before CUTOFF, in milliseconds since the epoch. */
+    List<File> garbage(Set<String> live, long cutoff) {
+        List<File> result = new ArrayList<>();
+        for (String id : looseIdsWithPrefix("")) {
+            File file = fileFor(id);
+            if (!live.contains(id) && file.lastModified() < cutoff) {
+                result.add(file);
+            }
+        }
+        File[] temps = dir.listFiles((d, name) -> name.startsWith("tmp-"));
+        if (temps != null) {
+            for (File temp : temps) {
+                if (temp.lastModified() < cutoff) {
+                    result.add(temp);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns an estimate of the number of loose objects, made by counting
+     *  those in one fan-out subdirectory only. */
+    int estimateLooseCount() {
+        return looseIdsWithPrefix(SAMPLE_FAN).size()
+            << (4 * FANOUT_LENGTH);
+    }
+
+    /** Returns the IDs of all loose objects whose IDs start with PREFIX,
+     *  in lexicographic order.  When PREFIX has at least FANOUT_LENGTH
+     *  characters, only one subdirectory is listed. */
+    private List<String> looseIdsWithPrefix(String prefix) {
+        List<String> result = new ArrayList<>();
+        if (prefix.length() >= FANOUT_LENGTH) {
+            String fan = prefix.substring(0, FANOUT_LENGTH);
+            addIds(fan, prefix.substring(FANOUT_LENGTH), result);
+            return result;
+        }
+        List<String> fans = subdirectoriesIn(dir);
+        for (String fan : fans) {
+            if (fan.startsWith(prefix)) {
+                addIds(fan, "", result);
+            }
+        }
+        return result;
+    }
+
+    /** Moves any objects stored directly in DIR, as in the flat layout
+     *  used by older repositories, into their fan-out subdirectories.
+     *  Returns the number of objects moved. */
+    int migrate() {
+        List<String> names = Utils.plainFilenamesIn(dir);
+        int moved = 0;
+        if (names == null) {
+            return moved;
+        }
+        for (String id : names) {
+            if (id.length() != Utils.UID_LENGTH) {
+                continue;
+            }
+            File target = fileFor(id);
+            target.getParentFile().mkdir();
+            File source = Utils.join(dir, id);
+            if (target.isFile()) {
+                source.delete();
+            } else if (!source.renameTo(target)) {
+                throw Utils.error("Could not move object %s.", id);
+            }
+            moved += 1;
+        }
+        return moved;
+    }
+
+    /** Compresses the remaining contents of IN into a new temporary file
+     *  in DIR, which it returns, also feeding them to DIGEST if it is not
+     *  null. */
+    private File compress(InputStream in, MessageDigest digest) {
+        Deflater deflater = new Deflater();
+        File temp = null;
+        try {
+            byte[] dict = dictionaries == null ? null : dictionaries.current();
+            if (dict != null) {
+                deflater.setDictionary(dict);
+            }
+            dir.mkdir();
+            temp = Files.createTempFile(dir.toPath(), "tmp-", null).toFile();
+            try (OutputStream out =
+                     new DeflaterOutputStream(new FileOutputStream(temp),
+                                              deflater, BUFFER_SIZE)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                    if (digest != null) {
+                        digest.update(buffer, 0, n);
+                    }
+                    out.write(buffer, 0, n);
+                }
+            }
+            return temp;
+        } catch (IOException excp) {
+            if (temp != null) {
+                temp.delete();
+            }
+            throw Utils.error("Cannot store object: %s", excp.getMessage());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** Makes the compressed object in TEMP the loose object with the
+     *  given ID. */
+    private void install(String id, File temp) {
+        File file = fileFor(id);
+        if (file.getParentFile().mkdir()) {
+            journal.sync(file.getParentFile());
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw Utils.error("Cannot store object %s.", id);
+        }
+        journal.sync(file);
+    }
+
+    /** Returns a stream of the contents of the loose object FILE.  Objects
+     *  stored uncompressed by older versions of Gitlet are recognized by
+     *  the absence of a zlib header. */
+    private InputStream openLoose(File file) throws IOException {
+        InputStream in =
+            new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+        in.mark(2);
+        int cmf = in.read();
+        int flg = in.read();
+        in.reset();
+        if (flg < 0 || !isZlibHeader(cmf, flg)) {
+            return in;
+        }
+        return new DictionaryInflaterStream(in);
+    }
+
+    /** Returns true iff CMF and FLG, the first two bytes of a file, form
+     *  a zlib header. */
+    private static boolean isZlibHeader(int cmf, int flg) {
+        return (cmf & 0x0f) == Deflater.DEFLATED && ((cmf << 8) | flg) % 31 == 0;
+    }
+
+    /** Returns the file holding the object with the given ID. */
+    private File fileFor(String id) {
+        return Utils.join(dir, id.substring(0, FANOUT_LENGTH),
+                          id.substring(FANOUT_LENGTH));
+    }
+
+    /** Appends to RESULT the IDs of the objects in subdirectory FAN
+     *  whose remaining characters start with REST. */
+    private void addIds(String fan, String rest, List<String> result) {
+        List<String> names = Utils.plainFilenamesIn(Utils.join(dir, fan));
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            if (name.length() == Utils.UID_LENGTH - FANOUT_LENGTH
+                && name.startsWith(rest)) {
+                result.add(fan + name);
+            }
+        }
+    }
+
+    /** An InflaterInputStream that supplies the preset dictionary a stream
+     *  was compressed with when the inflater asks for it. */
+    private class DictionaryInflaterStream extends InflaterInputStream {
+
+        DictionaryInflaterStream(InputStream in) {
+            super(in, new Inflater(), BUFFER_SIZE);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n == -1 && inf.needsDictionary()) {
+                if (dictionaries == null) {
+                    throw Utils.error("Object needs an unknown dictionary.");
+                }
+                inf.setDictionary(dictionaries.forChecksum(inf.getAdler()));
+                n = super.read(b, off, len);
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            inf.end();
+        }
+    }
+
+    /** Returns the sorted names of the fan-out subdirectories of DIR. */
+    private static List<String> subdirectoriesIn(File dir) {
+        List<String> result = new ArrayList<>();
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return result;
+        }
+        for (File f : files) {
+            if (f.isDirectory() && f.getName().length() == FANOUT_LENGTH) {
+                result.add(f.getName());
+            }
+        }
+        result.sort(null);
+        return result;
+    }
+}
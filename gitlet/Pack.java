@@ -0,0 +1,627 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+/** An append-only pack file holding many objects, together with an index
+ *  that maps each object ID to its position in the pack.  An object is
+ *  named by its type as well as its ID, since objects of different types,
+ *  such as a blob and a tree with the same contents, may share an ID.
+ *
+ *  The pack starts with a header (magic number, version) followed by one
+ *  entry per object: a type byte, the length of the contents as an int,
+ *  and the contents.  If COMPRESSED_FLAG is set in the type byte, the
+ *  contents are the uncompressed length as an int followed by the zlib
+ *  stream of the object.  A blob may instead be stored as a Delta against
+ *  another blob of the same pack, its base: then DELTA_FLAG is set in the
+ *  type byte and the contents are the raw 20-byte ID of the base followed
+ *  by the delta.  Bases may themselves be deltas, up to MAX_DELTA_DEPTH
+ *  levels deep.  The index starts with a header (magic number,
+ *  version, entry count) and a fan-out table of FANOUT_SIZE ints, whose
+ *  entry B is the number of objects whose IDs start with a byte no
+ *  greater than B, followed by fixed-size entries sorted by ID and then
+ *  type: the raw 20-byte ID, the object type as an int, and the offset of
+ *  the object's entry in the pack as a long.  Objects are found by binary search over
+ *  the entries the fan-out table gives for the first byte of their IDs,
+ *  so a lookup reads O(log N) index entries and one pack entry, and IDs
+ *  with a given prefix are found by two such searches.
+ *
+ *  Both files are read through read-only memory mappings, so lookups and
+ *  decompression work directly on the page cache rather than on copies
+ *  in the heap.
+ *  @author
+ */
+class Pack {
+
+    /** Type of packed commits. */
+    static final int COMMIT_TYPE = 1;
+    /** Type of packed blobs. */
+    static final int BLOB_TYPE = 2;
+    /** Type of packed manifests of chunked blobs. */
+    static final int MANIFEST_TYPE = 3;
+    /** Type of packed trees. */
+    static final int TREE_TYPE = 4;
+
+    /** Magic number ("PACK") at the start of a pack. */
+    private static final int PACK_MAGIC = 0x5041434b;
+    /** Magic number ("PIDX") at the start of an index. */
+    private static final int INDEX_MAGIC = 0x50494458;
+    /** Version of the pack and index formats. */
+    private static final int VERSION = 4;
+    /** Flag marking a pack entry whose contents are a delta. */
+    private static final int DELTA_FLAG = 0x80;
+    /** Flag marking a pack entry whose contents are compressed. */
+    private static final int COMPRESSED_FLAG = 0x40;
+    /** Number of preceding blobs considered as bases for a new delta. */
+    private static final int DELTA_WINDOW = 10;
+    /** Longest chain of deltas that must be applied to rebuild a blob. */
+    private static final int MAX_DELTA_DEPTH = 10;
+    /** Smallest blob considered for delta encoding. */
+    private static final int MIN_DELTA_SIZE = 64;
+    /** Largest blob considered for delta encoding or as a delta base. */
+    private static final int MAX_DELTA_SIZE = 16 << 20;
+    /** Total size of the rebuilt delta bases held strongly in BASECACHE. */
+    private static final long BASE_CACHE_SIZE = 32 << 20;
+    /** Size of the header of a pack entry. */
+    private static final int ENTRY_HEADER_SIZE = 5;
+    /** Size of the index header. */
+    private static final int INDEX_HEADER_SIZE = 12;
+    /** Number of entries in the fan-out table of an index. */
+    private static final int FANOUT_SIZE = 256;
+    /** Length of a raw object ID. */
+    private static final int ID_SIZE = Utils.UID_LENGTH / 2;
+    /** Size of one index entry. */
+    private static final int INDEX_ENTRY_SIZE = ID_SIZE + 4 + 8;
+
+    /** The pack file. */
+    private final File packFile;
+    /** The index of PACKFILE. */
+    private final File indexFile;
+
+    /** A mapping of PACKFILE, or null if not yet mapped. */
+    private ByteBuffer packMap;
+    /** A mapping of INDEXFILE, or null if not yet mapped. */
+    private ByteBuffer indexMap;
+
+    /** The most recently used delta bases, by ID.  Objects may be read
+     *  from several threads at once, so it is used only while locked. */
+    private final ObjectCache<String, byte[]> baseCache =
+        new ObjectCache<>(BASE_CACHE_SIZE, base -> base.length);
+
+    /** The pack and index kept in directory DIR. */
+    Pack(File dir) {
+        this(Utils.join(dir, "objects.pack"), Utils.join(dir, "objects.idx"));
+    }
+
+    /** The pack kept in PACKFILE, with its index in INDEXFILE. */
+    Pack(File packFile, File indexFile) {
+        this.packFile = packFile;
+        this.indexFile = indexFile;
+    }
+
+    /** Returns true iff the pack holds an object of type TYPE with the
+     *  given ID.  May be called from several threads at once. */
+    boolean contains(String id, int type) {
+        return find(id, type) >= 0;
+    }
+
+    /** Returns the contents of the object of type TYPE with the given ID,
+     *  or null if the pack has no such object. */
+    byte[] read(String id, int type) {
+        int offset = find(id, type);
+        if (offset < 0) {
+            return null;
+        }
+        int kind = packMap().get(offset) & 0xff;
+        ByteBuffer contents = contentsAt(offset);
+        if ((kind & DELTA_FLAG) != 0) {
+            byte[] baseID = new byte[ID_SIZE];
+            contents.get(baseID);
+            return Delta.apply(readBase(Utils.bytesToHex(baseID), type),
+                               contents);
+        }
+        if ((kind & COMPRESSED_FLAG) != 0) {
+            byte[] result = new byte[contents.getInt()];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(contents);
+                int n = 0;
+                while (n < result.length) {
+                    int k = inflater.inflate(result, n, result.length - n);
+                    if (k == 0 && inflater.needsInput()) {
+                        throw Utils.error("Corrupt pack entry for %s.", id);
+                    }
+                    n += k;
+                }
+                return result;
+            } catch (DataFormatException excp) {
+                throw Utils.error("Corrupt pack entry for %s.", id);
+            } finally {
+                inflater.end();
+            }
+        }
+        byte[] result = new byte[contents.remaining()];
+        contents.get(result);
+        return result;
+    }
+
+    /** Writes the contents of the object of type TYPE with the given ID to
+     *  OUT, returning false if the pack has no such object.  Whole objects
+     *  go from the mapping of the pack to OUT without being copied into
+     *  the heap. */
+    boolean copyTo(String id, int type, WritableByteChannel out)
+        throws IOException {
+        int offset = find(id, type);
+        if (offset < 0) {
+            return false;
+        }
+        int kind = packMap().get(offset) & 0xff;
+        ByteBuffer contents = contentsAt(offset);
+        if ((kind & DELTA_FLAG) != 0) {
+            contents = ByteBuffer.wrap(read(id, type));
+        } else if ((kind & COMPRESSED_FLAG) != 0) {
+            contents.getInt();
+            ObjectStore.inflate(contents, out, null);
+            return true;
+        }
+        while (contents.hasRemaining()) {
+            out.write(contents);
+        }
+        return true;
+    }
+
+    /** Returns the contents of the delta base of type TYPE with the given
+     *  ID, reusing a recently rebuilt copy if there is one. */
+    private byte[] readBase(String id, int type) {
+        byte[] base;
+        synchronized (baseCache) {
+            base = baseCache.get(id);
+        }
+        if (base == null) {
+            base = read(id, type);
+            if (base == null) {
+                throw Utils.error("Missing delta base %s.", id);
+            }
+            synchronized (baseCache) {
+                baseCache.put(id, base);
+            }
+        }
+        return base;
+    }
+
+    /** Returns the contents of the pack entry at OFFSET, as a view of the
+     *  mapping of the pack. */
+    private ByteBuffer contentsAt(int offset) {
+        ByteBuffer pack = packMap();
+        int length = pack.getInt(offset + 1);
+        return pack.slice(offset + ENTRY_HEADER_SIZE, length);
+    }
+
+    /** Returns the IDs of all objects of type TYPE whose IDs start with
+     *  PREFIX, in lexicographic order. */
+    List<String> idsWithPrefix(String prefix, int type) {
+        List<String> result = new ArrayList<>();
+        ByteBuffer index = indexMap();
+        if (index == null) {
+            return result;
+        }
+        byte[] low = prefixBound(prefix, '0');
+        byte[] high = prefixBound(prefix, 'f');
+        int lo = lowerBound(index, low, 0);
+        int hi = lowerBound(index, high, 1);
+        for (int k = lo; k < hi; k += 1) {
+            if (entryType(index, k) == type) {
+                result.add(entryID(index, k));
+            }
+        }
+        return result;
+    }
+
+    /** Appends to the pack the objects of type TYPE whose IDs are in IDS
+     *  and that are not already packed, obtaining the contents of each
+     *  from CONTENTS, and rewrites the index to include them.  The pack is
+     *  forced to disk before the new index replaces the old one, so the
+     *  index never refers to data that is not there.  Blobs are stored as
+     *  deltas against whichever of the DELTA_WINDOW blobs appended just
+     *  before them gives the smallest delta, so IDS should list similar
+     *  blobs (such as versions of one file) next to each other.  Objects
+     *  that are not stored as deltas are compressed when that makes them
+     *  smaller. */
+    void append(List<String> ids, int type, Function<String, byte[]> contents) {
+        List<Entry> entries = readEntries();
+        packFile.getParentFile().mkdir();
+        try (RandomAccessFile pack = new RandomAccessFile(packFile, "rw")) {
+            if (pack.length() == 0) {
+                pack.writeInt(PACK_MAGIC);
+                pack.writeInt(VERSION);
+            } else {
+                checkHeader(pack, PACK_MAGIC);
+            }
+            pack.seek(pack.length());
+            int oldCount = entries.size();
+            LinkedList<Candidate> window = new LinkedList<>();
+            for (String id : ids) {
+                if (find(entries, oldCount, id, type) >= 0) {
+                    continue;
+                }
+                Candidate object = new Candidate(id, contents.apply(id));
+                entries.add(new Entry(id, type, pack.getFilePointer()));
+                if (type == BLOB_TYPE) {
+                    writeBlob(pack, object, window);
+                } else {
+                    writeWhole(pack, type, object.data);
+                }
+            }
+            if (pack.length() > Integer.MAX_VALUE) {
+                throw Utils.error("Pack is too large.");
+            }
+            pack.getFD().sync();
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write pack: %s", excp.getMessage());
+        }
+        entries.sort(Pack::compare);
+        writeEntries(entries);
+        packMap = indexMap = null;
+    }
+
+    /** Returns the sizes of the entries in the pack of the packed objects
+     *  whose IDs are not in LIVE. */
+    List<Long> dead(Set<String> live) {
+        List<Long> result = new ArrayList<>();
+        for (Entry e : readEntries()) {
+            if (!live.contains(e.id)) {
+                result.add((long) ENTRY_HEADER_SIZE
+                           + packMap().getInt((int) e.offset + 1));
+            }
+        }
+        return result;
+    }
+
+    /** Arranges for the pack to be replaced, when JOURNAL commits, by one
+     *  holding only its objects whose IDs are in LIVE, with the blobs
+     *  appended in the order given by BLOBORDER so that similar blobs can
+     *  again be stored as deltas against each other. */
+    void retain(Set<String> live, Comparator<String> blobOrder,
+                Journal journal) {
+        TreeMap<Integer, List<String>> byType = new TreeMap<>();
+        byType.put(COMMIT_TYPE, new ArrayList<>());
+        for (Entry e : readEntries()) {
+            if (live.contains(e.id)) {
+                byType.computeIfAbsent(e.type, t -> new ArrayList<>())
+                    .add(e.id);
+            }
+        }
+        Pack fresh = new Pack(journal.tempFile(), journal.tempFile());
+        for (Map.Entry<Integer, List<String>> group : byType.entrySet()) {
+            int type = group.getKey();
+            if (type == BLOB_TYPE) {
+                group.getValue().sort(blobOrder);
+            }
+            fresh.append(group.getValue(), type, id -> read(id, type));
+        }
+        journal.replace(packFile, fresh.packFile);
+        journal.replace(indexFile, fresh.indexFile);
+    }
+
+    /** Forgets the mappings of the pack and index, so that they are read
+     *  again after being replaced. */
+    void reset() {
+        packMap = indexMap = null;
+        baseCache.clear();
+    }
+
+    /** Writes the blob OBJECT to PACK, as a delta against a member of
+     *  WINDOW if one makes a small enough delta, and then adds OBJECT to
+     *  WINDOW. */
+    private static void writeBlob(RandomAccessFile pack, Candidate object,
+                                  LinkedList<Candidate> window)
+        throws IOException {
+        Candidate base = null;
+        byte[] delta = null;
+        if (object.data.length > MAX_DELTA_SIZE) {
+            writeWhole(pack, BLOB_TYPE, object.data);
+            return;
+        }
+        if (object.data.length >= MIN_DELTA_SIZE) {
+            for (Candidate c : window) {
+                if (c.depth >= MAX_DELTA_DEPTH) {
+                    continue;
+                }
+                byte[] d = Delta.encode(c.data, object.data);
+                if (d.length + ID_SIZE < object.data.length / 2
+                    && (delta == null || d.length < delta.length)) {
+                    base = c;
+                    delta = d;
+                }
+            }
+        }
+        if (base == null) {
+            writeWhole(pack, BLOB_TYPE, object.data);
+        } else {
+            object.depth = base.depth + 1;
+            pack.writeByte(BLOB_TYPE | DELTA_FLAG);
+            pack.writeInt(ID_SIZE + delta.length);
+            pack.write(Utils.hexToBytes(base.id));
+            pack.write(delta);
+        }
+        window.addFirst(object);
+        if (window.size() > DELTA_WINDOW) {
+            window.removeLast();
+        }
+    }
+
+    /** Writes an entry for the object of type TYPE whose contents are DATA
+     *  to PACK, compressing DATA if that makes it smaller. */
+    private static void writeWhole(RandomAccessFile pack, int type, byte[] data)
+        throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater();
+        try (DeflaterOutputStream out =
+                 new DeflaterOutputStream(compressed, deflater)) {
+            out.write(data);
+        } finally {
+            deflater.end();
+        }
+        if (compressed.size() + 4 < data.length) {
+            pack.writeByte(type | COMPRESSED_FLAG);
+            pack.writeInt(4 + compressed.size());
+            pack.writeInt(data.length);
+            pack.write(compressed.toByteArray());
+        } else {
+            pack.writeByte(type);
+            pack.writeInt(data.length);
+            pack.write(data);
+        }
+    }
+
+    /** Returns the offset in the pack of the object of type TYPE with the
+     *  given ID, or -1 if there is none. */
+    private int find(String id, int type) {
+        ByteBuffer index = indexMap();
+        if (index == null) {
+            return -1;
+        }
+        byte[] key = Utils.hexToBytes(id);
+        int count = index.getInt(8);
+        for (int k = lowerBound(index, key, 0);
+             k < count && compareID(index, entryPosition(index, k), key) == 0;
+             k += 1) {
+            if (entryType(index, k) == type) {
+                return (int) entryOffset(index, k);
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the number of entries of INDEX whose IDs are less than KEY,
+     *  or if INCLUSIVE is 1, no greater than KEY.  Only the entries that
+     *  the fan-out table gives for the first byte of KEY are searched. */
+    private static int lowerBound(ByteBuffer index, byte[] key, int inclusive) {
+        int first = key[0] & 0xff;
+        int fanout = INDEX_HEADER_SIZE + 4 * first;
+        int lo = first == 0 ? 0 : index.getInt(fanout - 4);
+        int hi = index.getInt(fanout);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareID(index, entryPosition(index, mid), key) < inclusive) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Returns the raw ID formed by padding the hex numeral PREFIX to a
+     *  full ID with the digit PAD. */
+    private static byte[] prefixBound(String prefix, char pad) {
+        StringBuilder id = new StringBuilder(Utils.UID_LENGTH).append(prefix);
+        while (id.length() < Utils.UID_LENGTH) {
+            id.append(pad);
+        }
+        return Utils.hexToBytes(id.toString());
+    }
+
+    /** Compares the raw ID at position POS of INDEX with KEY as unsigned
+     *  bytes. */
+    private static int compareID(ByteBuffer index, int pos, byte[] key) {
+        for (int k = 0; k < ID_SIZE; k += 1) {
+            int c = Integer.compare(index.get(pos + k) & 0xff, key[k] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the position of the object of type TYPE with the given ID
+     *  among the first COUNT ENTRIES, which are in index order, or -1 if
+     *  it is not there. */
+    private static int find(List<Entry> entries, int count, String id,
+                            int type) {
+        Entry key = new Entry(id, type, 0);
+        int lo = 0, hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compare(entries.get(mid), key);
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Compares E0 and E1 by ID, and then by type, which is the order of
+     *  the entries of the index. */
+    private static int compare(Entry e0, Entry e1) {
+        int c = e0.id.compareTo(e1.id);
+        return c != 0 ? c : Integer.compare(e0.type, e1.type);
+    }
+
+    /** Returns a mapping of the pack. */
+    private synchronized ByteBuffer packMap() {
+        if (packMap == null) {
+            packMap = map(packFile, PACK_MAGIC);
+        }
+        return packMap;
+    }
+
+    /** Returns a mapping of the index, or null if there is no index. */
+    private synchronized ByteBuffer indexMap() {
+        if (indexMap == null && indexFile.isFile()) {
+            indexMap = map(indexFile, INDEX_MAGIC);
+        }
+        return indexMap;
+    }
+
+    /** Returns a read-only mapping of FILE, after checking that it starts
+     *  with MAGIC and VERSION. */
+    private static ByteBuffer map(File file, int magic) {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                                                    StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw Utils.error("Pack is too large.");
+            }
+            ByteBuffer map =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (map.getInt(0) != magic || map.getInt(4) != VERSION) {
+                throw Utils.error("Unrecognized pack format.");
+            }
+            return map;
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read pack: %s", excp.getMessage());
+        }
+    }
+
+    /** Checks that FILE starts with MAGIC and VERSION. */
+    private static void checkHeader(RandomAccessFile file, int magic)
+        throws IOException {
+        file.seek(0);
+        if (file.readInt() != magic || file.readInt() != VERSION) {
+            throw Utils.error("Unrecognized pack format.");
+        }
+    }
+
+    /** Returns the position in INDEX of entry K. */
+    private static int entryPosition(ByteBuffer index, int k) {
+        return INDEX_HEADER_SIZE + 4 * FANOUT_SIZE + k * INDEX_ENTRY_SIZE;
+    }
+
+    /** Returns the ID of entry K of INDEX. */
+    private static String entryID(ByteBuffer index, int k) {
+        byte[] id = new byte[ID_SIZE];
+        index.get(entryPosition(index, k), id);
+        return Utils.bytesToHex(id);
+    }
+
+    /** Returns the object type of entry K of INDEX. */
+    private static int entryType(ByteBuffer index, int k) {
+        return index.getInt(entryPosition(index, k) + ID_SIZE);
+    }
+
+    /** Returns the pack offset of entry K of INDEX. */
+    private static long entryOffset(ByteBuffer index, int k) {
+        return index.getLong(entryPosition(index, k) + ID_SIZE + 4);
+    }
+
+    /** Returns all entries of the index, in order. */
+    private List<Entry> readEntries() {
+        List<Entry> entries = new ArrayList<>();
+        ByteBuffer index = indexMap();
+        if (index == null) {
+            return entries;
+        }
+        int count = index.getInt(8);
+        for (int k = 0; k < count; k += 1) {
+            entries.add(new Entry(entryID(index, k), entryType(index, k),
+                                  entryOffset(index, k)));
+        }
+        return entries;
+    }
+
+    /** Replaces the index with one holding ENTRIES, which are in index
+     *  order. */
+    private void writeEntries(List<Entry> entries) {
+        File temp = Utils.join(indexFile.getParentFile(), "objects.idx.tmp");
+        try (RandomAccessFile index = new RandomAccessFile(temp, "rw")) {
+            index.setLength(0);
+            index.writeInt(INDEX_MAGIC);
+            index.writeInt(VERSION);
+            index.writeInt(entries.size());
+            int[] fanout = new int[FANOUT_SIZE];
+            for (Entry e : entries) {
+                fanout[Integer.parseInt(e.id.substring(0, 2), 16)] += 1;
+            }
+            int total = 0;
+            for (int b = 0; b < FANOUT_SIZE; b += 1) {
+                total += fanout[b];
+                index.writeInt(total);
+            }
+            for (Entry e : entries) {
+                index.write(Utils.hexToBytes(e.id));
+                index.writeInt(e.type);
+                index.writeLong(e.offset);
+            }
+            index.getFD().sync();
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write pack index: %s", excp.getMessage());
+        }
+        if (!temp.renameTo(indexFile)) {
+            throw Utils.error("Cannot replace pack index.");
+        }
+    }
+
+    /** An object being appended, considered as a delta base for the
+     *  objects appended after it. */
+    private static class Candidate {
+        /** The object's ID. */
+        private final String id;
+        /** The object's contents. */
+        private final byte[] data;
+        /** The number of deltas applied to rebuild the object. */
+        private int depth;
+
+        Candidate(String id, byte[] data) {
+            this.id = id;
+            this.data = data;
+        }
+    }
+
+    /** One index entry. */
+    private static class Entry {
+        /** The object's ID. */
+        private final String id;
+        /** The object's type. */
+        private final int type;
+        /** The offset of the object's entry in the pack. */
+        private final long offset;
+
+        Entry(String id, int type, long offset) {
+            this.id = id;
+            this.type = type;
+            this.offset = offset;
+        }
+    }
+}
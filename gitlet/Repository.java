@@ -1,9 +1,28 @@
 package gitlet;
 
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.Serializable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.IntStream;
 import java.text.SimpleDateFormat;
 
 import static gitlet.Utils.*;
@@ -15,7 +34,7 @@ import static gitlet.Utils.*;
  *
  *  @author
  */
-public class Repository implements Serializable {
+public class Repository {
     /**
      *
      *
@@ -31,101 +50,344 @@ public class Repository implements Serializable {
 
     private File COMMIT = Utils.join(GITLET_DIR, "commits");
 
-    private File STAGING = Utils.join(GITLET_DIR, "staging");
+    private File OBJECTS = Utils.join(GITLET_DIR, "objects");
+    /** The directory holding the manifests of chunked blobs. */
+    private final File MANIFESTS = Utils.join(GITLET_DIR, "manifests");
+    /** The directory holding the trees of commits. */
+    private final File TREES = Utils.join(GITLET_DIR, "trees");
 
-    private File REPO = Utils.join(GITLET_DIR, "repository");
+    /** The file naming the current branch. */
+    private final File HEAD = Utils.join(GITLET_DIR, "HEAD");
+    /** The directory holding one file per branch, containing the ID of the
+     *  commit at its tip. */
+    private final File HEADS = Utils.join(GITLET_DIR, "refs", "heads");
+    /** The file holding the staging index. */
+    private final File INDEX = Utils.join(GITLET_DIR, "index");
+    /** The reflog: one line for each move of the head commit. */
+    private final File LOGS = Utils.join(GITLET_DIR, "logs", "HEAD");
+    /** The commit graph of the commits present when it was last
+     *  rewritten. */
+    private final File COMMIT_GRAPH = Utils.join(GITLET_DIR, "commit-graph");
+    /** The commits made since COMMIT_GRAPH was rewritten. */
+    private final File COMMIT_GRAPH_LOG =
+        Utils.join(GITLET_DIR, "commit-graph-log");
+    /** The index of the messages of the commits present when it was last
+     *  rewritten. */
+    private final File MESSAGE_INDEX = Utils.join(GITLET_DIR, "message-index");
+    /** The messages of the commits made since MESSAGE_INDEX was
+     *  rewritten. */
+    private final File MESSAGE_LOG = Utils.join(GITLET_DIR, "message-log");
 
 
 
-    private HashMap<String, Blob> stageMap;
+    /** The journal through which the files holding the repository's state
+     *  are updated. */
+    private Journal journal = new Journal(GITLET_DIR);
 
+    /** The staging index: the files and blobs of the next commit. */
+    private Index index;
 
-    private Commit head;
+    /** The store holding the contents of every staged or committed blob. */
+    private BlobStore objects;
 
+    /** The store holding every commit. */
+    private ObjectStore commits;
 
-    private List<String> removeList;
+    /** The store holding the trees of commits. */
+    private ObjectStore trees;
 
+    /** The repository's settings, read the first time they are needed. */
+    private Config config;
 
-    private HashMap<String, Commit> branchMap;
+    /** Computes the IDs of blobs and trees. */
+    private Hasher hasher;
+
+    /** The pack shared by OBJECTS and COMMITS. */
+    private Pack pack;
+
+    /** The shape of the history, read from COMMIT_GRAPH the first time it
+     *  is needed. */
+    private CommitGraph commitGraph;
+
+    /** The index of commit messages, opened the first time it is
+     *  needed. */
+    private MessageIndex messageIndex;
+
+
+    /** The ID of the current head commit. */
+    private String head;
+
+    /** The head commit, read from COMMIT the first time it is needed. */
+    private Commit headCommit;
+
+    /** The most recently used commits, by ID, so that walks over the
+     *  commit graph read each commit from disk only once. */
+    private ObjectCache<String, Commit> commitCache =
+        new ObjectCache<>(COMMIT_CACHE_SIZE, Commit::weight);
+
+    /** The most recently used trees, by ID. */
+    private ObjectCache<String, Tree> treeCache =
+        new ObjectCache<>(COMMIT_CACHE_SIZE, Tree::weight);
+
+    /** The maps from file paths to blob IDs of the most recently used
+     *  commits with trees, by tree ID. */
+    private ObjectCache<String, HashMap<String, String>> fileCache =
+        new ObjectCache<>(COMMIT_CACHE_SIZE, files -> 160L * files.size());
+
+
+    /** Maps each branch name to the ID of the commit at its tip.  Read
+     *  from HEADS the first time it is needed. */
+    private HashMap<String, String> branchMap;
 
 
     private String branchName;
 
+    /** Reflog lines for the moves of the head commit since the last
+     *  save. */
+    private List<String> reflog = new ArrayList<>();
+
+    /** True iff the current branch has changed since HEAD was written. */
+    private boolean headChanged;
+
+    /** The branches created, moved or deleted since their files in HEADS
+     *  were written. */
+    private Set<String> changedRefs = new HashSet<>();
+
+    /** Prefix of the contents of HEAD. */
+    private static final String REF_PREFIX = "ref: refs/heads/";
+    /** The commit ID recorded in the reflog as the head before the
+     *  initial commit. */
+    private static final String NULL_ID =
+        "0000000000000000000000000000000000000000";
+    /** Time in milliseconds for which gc keeps unreachable loose objects
+     *  and reflog entries. */
+    private static final long GC_GRACE_PERIOD = 14L * 24 * 60 * 60 * 1000;
+    /** Estimated number of loose objects above which gc --auto runs,
+     *  unless GC_AUTO_SETTING says otherwise. */
+    private static final int GC_AUTO_THRESHOLD = 6700;
+    /** Setting giving the threshold of gc --auto in place of
+     *  GC_AUTO_THRESHOLD, where 0 turns gc --auto off. */
+    private static final String GC_AUTO_SETTING = "gc.auto";
+    /** Total estimated size of the commits held strongly in
+     *  COMMITCACHE. */
+    private static final long COMMIT_CACHE_SIZE = 16 << 20;
+    /** Setting naming the object format: Hasher.SHA1 or Hasher.SHA256. */
+    private static final String OBJECT_FORMAT_SETTING = "core.objectFormat";
+
 
 
     public Repository() {
         if (!GITLET_DIR.exists()) {
             GITLET_DIR.mkdir();
-            Commit initial = new Commit("initial commit");
-            head = initial;
-            branchName = "main";
-
             COMMIT.mkdir();
-            STAGING.mkdir();
+            OBJECTS.mkdir();
+            HEADS.mkdirs();
+
+            index = new Index(INDEX);
+            Commit initial = new Commit("initial commit",
+                                        index.writeTree(getTrees(),
+                                                        getHasher()));
+            moveHead(initial, "commit (initial): initial commit");
+            branchName = "main";
 
-            stageMap = new HashMap<>();
             branchMap = new HashMap<>();
-            removeList = new ArrayList<>();
 
-            branchMap.put(branchName, head);
+            setBranch(branchName, head);
+            headChanged = true;
 
-            File currCommit = Utils.join(COMMIT, initial.getcommitID());
-
-            Utils.writeObject(currCommit, initial);
+            writeCommit(initial);
+            addToCommitGraph(initial);
 
         } else {
             failure("A Gitlet version-control system already exists in the current directory.");
         }
 
 
-        storeRepo();
+        save();
 
     }
 
 
-    public void add(String filename) {
-
-        File addFile = new File(filename);
+    /** A repository whose current branch is BRANCH, with head commit
+     *  HEAD.  BRANCHES maps branch names to commit IDs, or is null if they
+     *  are to be read from HEADS when needed. */
+    private Repository(String branch, String head,
+                       HashMap<String, String> branches) {
+        this.branchName = branch;
+        this.head = head;
+        this.branchMap = branches;
+    }
 
-        if (!addFile.exists()) {
-            failure("File does not exist.");
+    /** Returns the repository whose state is kept in GITLETDIR, or null if
+     *  GITLETDIR holds no repository.  A repository written by the first
+     *  version of Gitlet is converted to the current format. */
+    public static Repository load(File gitletDir) {
+        new Journal(gitletDir).recover();
+        if (SerializedRepository.isIn(gitletDir)) {
+            return convert(new SerializedRepository(gitletDir));
         }
+        File headFile = Utils.join(gitletDir, "HEAD");
+        if (!headFile.isFile()) {
+            return null;
+        }
+        String ref = Utils.readContentsAsString(headFile).trim();
+        if (!ref.startsWith(REF_PREFIX)) {
+            throw Utils.error("Corrupt HEAD.");
+        }
+        String branch = ref.substring(REF_PREFIX.length());
+        String head = Utils.readContentsAsString(
+            Utils.join(gitletDir, "refs", "heads", branch)).trim();
 
-        Blob newBlob = new Blob(addFile, filename);
-        String blobid = newBlob.getBlobid();
-
-        removeList.remove(filename);
+        Repository repo = new Repository(branch, head, null);
+        repo.index = repo.readIndex();
+        return repo;
+    }
 
-        Map<String, Blob> currBlob = new HashMap<>();
+    /** Returns the repository held in OLD, a repository of the first
+     *  version of Gitlet, after writing its commits, blobs, branches and
+     *  staged changes in the current format, and arranging for the old
+     *  files to be deleted as the new ones are put in place.  Commits keep
+     *  their IDs, and are given trees; blobs are identified by the hashes
+     *  of their contents alone. */
+    private static Repository convert(SerializedRepository old) {
+        Repository repo = new Repository(old.branch(), old.head(),
+                                         old.branches());
+        BlobStore store = repo.getObjects();
+        for (SerializedRepository.SavedCommit commit
+                 : old.commits().values()) {
+            Index files = new Index(repo.INDEX);
+            for (Map.Entry<String, SerializedRepository.SavedBlob> e
+                     : commit.blobMap.entrySet()) {
+                files.put(e.getKey(), store.write(e.getValue().contents()),
+                          null);
+            }
+            String[] parents = null;
+            if (commit.parent != null) {
+                parents = new String[commit.parent.length];
+                for (int i = 0; i < parents.length; i += 1) {
+                    parents[i] = commit.parent[i].id;
+                }
+            }
+            String tree = files.writeTree(repo.getTrees(), repo.getHasher());
+            repo.writeCommit(new Commit(commit.id, commit.message,
+                                        commit.date, parents, tree));
+        }
+        HashMap<String, String> staged = new HashMap<>();
+        for (Map.Entry<String, SerializedRepository.SavedBlob> e
+                 : old.staged().entrySet()) {
+            staged.put(e.getKey(), store.write(e.getValue().contents()));
+        }
+        repo.index = repo.stagedIndex(staged, old.removed());
+        repo.writeCommitIndexes();
+        for (File file : old.files()) {
+            repo.journal.delete(file);
+        }
+        repo.HEADS.mkdirs();
+        repo.changedRefs.addAll(repo.branchMap.keySet());
+        repo.headChanged = true;
+        repo.save();
+        Utils.join(repo.GITLET_DIR, "staging").delete();
+        return repo;
+    }
 
-        if (head != null) {
-            currBlob = head.getBlobMap();
+    /** Returns the index stored in INDEX, or an empty index if there is
+     *  none. */
+    private Index readIndex() {
+        if (!INDEX.isFile()) {
+            return new Index(INDEX);
         }
+        ByteBuffer in = Codec.open(Utils.readContents(INDEX), Index.KIND);
+        if (Codec.version(in) != Index.VERSION) {
+            throw Utils.error("Unsupported index version.");
+        }
+        return new Index(INDEX, in);
+    }
 
-        if (currBlob.containsKey(filename)) {
-            if (currBlob.get(filename).getBlobid().equals(blobid)) {
-                storeRepo();
-                return;
+    /** Returns the index holding the files of the head commit, less those
+     *  in REMOVE, plus the staged files and blobs in STAGE. */
+    private Index stagedIndex(Map<String, String> stage, List<String> remove) {
+        Index result = new Index(INDEX);
+        for (Map.Entry<String, String> e : blobsOf(getHead()).entrySet()) {
+            if (!remove.contains(e.getKey())) {
+                result.put(e.getKey(), e.getValue(), null);
             }
         }
+        for (Map.Entry<String, String> e : stage.entrySet()) {
+            result.put(e.getKey(), e.getValue(), null);
+        }
+        return result;
+    }
 
-        File stagingFile = Utils.join(STAGING, filename);
 
-        if (stageMap.containsKey(filename)) {
-            if (!stageMap.get(filename).getBlobid().equals(blobid)) {
-                stageMap.replace(filename, newBlob);
-                Utils.restrictedDelete(stagingFile);
-                String content = Utils.readContentsAsString(addFile);
-                Utils.writeContents(stagingFile, content);
+    /** Stages the files named by PATHS for addition.  Each of PATHS is a
+     *  file, a directory, standing for all the files under it, or a glob
+     *  pattern such as "src/*.java", matched against the paths of all
+     *  working files.  A name that exists is taken literally, even if it
+     *  contains glob characters.  The files are hashed and stored in parallel, and
+     *  the index is written once at the end. */
+    public void add(String... paths) {
+        TreeSet<String> files = new TreeSet<>();
+        List<String> workingFiles = null;
+        for (String name : paths) {
+            File named = Utils.join(CWD, name);
+            if (named.isDirectory()) {
+                String dir = repoDir(name);
+                for (String path : WorkTree.files(Utils.join(CWD, dir))) {
+                    files.add(dir + path);
+                }
+            } else if (!named.exists() && name.matches(".*[*?\\[{].*")) {
+                if (workingFiles == null) {
+                    workingFiles = WorkTree.files(CWD);
+                }
+                PathMatcher matcher = FileSystems.getDefault()
+                    .getPathMatcher("glob:" + name.replace(File.separatorChar, '/'));
+                int found = files.size();
+                for (String path : workingFiles) {
+                    if (matcher.matches(Path.of(path))) {
+                        files.add(path);
+                    }
+                }
+                if (files.size() == found) {
+                    failure("File does not exist.");
+                }
+            } else {
+                files.add(repoPath(name));
             }
-        } else {
-            stageMap.put(filename, newBlob);
-            String content = Utils.readContentsAsString(addFile);
-            Utils.writeContents(stagingFile, content);
         }
+        stage(new ArrayList<>(files));
+        save();
+    }
 
+    /** Stages the files PATHS for addition, as for add, without saving the
+     *  staging area.  Files whose stat data show them unchanged since they
+     *  were last staged are not read again; the others are hashed and
+     *  stored in parallel on the common fork/join pool. */
+    private void stage(List<String> paths) {
+        BlobStore store = getObjects();
+        Index.Entry[] stats = new Index.Entry[paths.size()];
+        String[] blobs = new String[paths.size()];
+        IntStream.range(0, paths.size()).parallel().forEach(i -> {
+            File file = Utils.join(CWD, paths.get(i));
+            stats[i] = Index.stat(file);
+            if (stats[i] != null) {
+                blobs[i] = index.cachedBlob(paths.get(i), stats[i]);
+                if (blobs[i] == null) {
+                    blobs[i] = new Blob(file, store).getBlobid();
+                }
+            }
+        });
+        for (int i = 0; i < blobs.length; i += 1) {
+            if (stats[i] == null) {
+                failure("File does not exist.");
+            }
+            index.put(paths.get(i), blobs[i], stats[i]);
+        }
+    }
 
-        storeRepo();
+    /** Stages FILENAME for addition, as for add, without saving the
+     *  staging area. */
+    private void stage(String filename) {
+        stage(List.of(filename));
     }
 
 
@@ -139,71 +401,69 @@ public class Repository implements Serializable {
 
 
     public void commit(String msg) {
+        commit(msg, null);
+    }
+
+    /** Commits the staged changes with message MSG.  If MERGEPARENT is not
+     *  null, it is recorded as the second parent of the new commit. */
+    private void commit(String msg, String mergeParent) {
 
         if (msg.length() == 0) {
             failure("Please enter a commit message.");
         }
 
-        if (stageMap.size() == 0 && removeList.size() == 0) {
+        String tree = index.writeTree(getTrees(), getHasher());
+        if (tree.equals(getHead().getTree())) {
             failure("No changes added to the commit.");
         }
 
-        Commit[] parentCommit = {head};
-        HashMap<String, Blob> parentBlob = new HashMap<>();
-
-        if (head != null) {
-            parentBlob = head.getBlobMap();
-        }
-
-        HashMap<String, Blob> currMap = new HashMap<>();
-
-        for (String file: stageMap.keySet()) {
-            currMap.put(file, stageMap.get(file));
+        String[] parentCommit = {head};
+        if (mergeParent != null) {
+            parentCommit = new String[] {head, mergeParent};
         }
 
-        for (String file: parentBlob.keySet()) {
-            if (!stageMap.containsKey(file) && !removeList.contains(file)) {
-                currMap.put(file, parentBlob.get(file));
-            }
+        Commit currCommit = new Commit(msg, parentCommit, tree);
+
+        boolean indexed = hasMessageIndex();
+        writeCommit(currCommit);
+        addToCommitGraph(currCommit);
+        if (!indexed) {
+            TreeMap<String, MessageIndex.Entry> entries = messageEntries();
+            entries.put(currCommit.getcommitID(),
+                        new MessageIndex.Entry(currCommit));
+            writeMessageIndex(entries);
+        } else if (getMessageIndex().needsCompaction()) {
+            writeMessageIndex(getMessageIndex().entries());
         }
 
-        Commit currCommit = new Commit(msg, parentCommit, currMap);
-
-        File commitFile = Utils.join(COMMIT, currCommit.getcommitID());
-        Utils.writeObject(commitFile, currCommit);
+        moveHead(currCommit, (mergeParent == null ? "commit: "
+                              : "commit (merge): ") + msg);
 
-        head = currCommit;
+        setBranch(branchName, head);
 
-        stageMap.clear();
-        clearFolder(STAGING);
-        removeList.clear();
-        branchMap.put(branchName, head);
-
-        storeRepo();
+        save();
+        gc(false, true, false);
 
 
     }
 
 
     public void checkout(String filename) {
-        String commitID = head.getcommitID();
-        Commit checkCommit = getCommit(commitID);
+        filename = repoPath(filename);
+        Commit checkCommit = getHead();
 
-        if (checkCommit == null || !checkCommit.getBlobMap().containsKey(filename)) {
+        if (checkCommit == null || !blobsOf(checkCommit).containsKey(filename)) {
             failure("File does not exist in that commit.");
         }
 
-        File file = Utils.join(CWD, filename);
-        HashMap<String, Blob> commitMap = checkCommit.getBlobMap();
-        String content = commitMap.get(filename).getStrContents();
-
-        Utils.writeContents(file, content);
+        writeWorkingFile(filename, blobsOf(checkCommit).get(filename));
 
 
     }
 
 
     public void checkout(String commitID, String filename) {
+        filename = repoPath(filename);
 
         Commit checkCommit = getCommit(toFullID(commitID));
 
@@ -211,55 +471,32 @@ public class Repository implements Serializable {
             failure("No commit with that id exists.");
         }
 
-        if (!checkCommit.getBlobMap().containsKey(filename)) {
+        if (!blobsOf(checkCommit).containsKey(filename)) {
             failure("File does not exist in that commit.");
         }
 
-        File file = Utils.join(CWD, filename);
-        HashMap<String, Blob> commitMap = checkCommit.getBlobMap();
-        String content = commitMap.get(filename).getStrContents();
-
-        Utils.writeContents(file, content);
+        writeWorkingFile(filename, blobsOf(checkCommit).get(filename));
 
 
     }
 
     public void checkoutBranch(String newBranch) {
-        if (!branchMap.containsKey(newBranch)) {
+        if (!getBranches().containsKey(newBranch)) {
             failure("No such branch exists.");
         }
         if (branchName.equals(newBranch)) {
             failure("No need to checkout the current branch.");
         }
 
-        List<String> workDir = Utils.plainFilenamesIn(CWD);
-        Commit updateHead = branchMap.get(newBranch);
-        HashMap<String, Blob> blobMap = updateHead.getBlobMap();
-
-        for (String filename: workDir) {
-            if (!head.getBlobMap().containsKey(filename)
-                    && blobMap.containsKey(filename)) {
-                failure("There is an untracked file in the way; "
-                        + "delete it, or add and commit it first.");
-            }
-            if (!blobMap.containsKey(filename)) {
-                Utils.restrictedDelete(Utils.join(CWD, filename));
-            }
-        }
-
-
-        for (String filename :blobMap.keySet()) {
-            File f = Utils.join(CWD, filename);
-            Utils.writeContents(f, blobMap.get(filename).getStrContents());
-        }
+        Commit updateHead = getCommit(getBranches().get(newBranch));
+        checkoutCommit(updateHead);
 
+        moveHead(updateHead, "checkout: moving from " + branchName + " to "
+                 + newBranch);
         branchName = newBranch;
-        head = updateHead;
-        clearFolder(STAGING);
-        removeList.clear();
-        stageMap.clear();
+        headChanged = true;
 
-        storeRepo();
+        save();
 
 
 
@@ -268,69 +505,93 @@ public class Repository implements Serializable {
 
 
     public void log() {
-        Commit currCommit = head;
-        while (currCommit != null) {
-            System.out.println("===");
-            System.out.println("commit " + currCommit.getcommitID());
-            System.out.println("Date: " + timeString(currCommit.getCommitTime()));
-            System.out.println(currCommit.getMessage());
-            System.out.println();
-            if (currCommit.getParent() != null) {
-                currCommit = currCommit.getParent()[0];
-            } else {
-                currCommit = null;
-            }
-        }
+        printLog(visitor -> loadMessageIndex().walk(head, visitor),
+                 new OutputStreamWriter(System.out));
     }
 
 
+    /** Prints the log entry of every commit, in order of ID, from the
+     *  table of commits rather than the commits themselves. */
     public void globalLog() {
-        List<String> commitIdList = Utils.plainFilenamesIn(COMMIT);
-        for (String commitID : commitIdList) {
-            Commit currCommit = getCommit(commitID);
-            System.out.println("===");
-            System.out.println("commit " + currCommit.getcommitID());
-            System.out.println("Date: " + timeString(currCommit.getCommitTime()));
-            System.out.println(currCommit.getMessage());
-            System.out.println();
-
-        }
+        printLog(loadMessageIndex()::forEach,
+                 new OutputStreamWriter(System.out));
+    }
 
+    /** Writes the log entries of the commits that WALK passes to the
+     *  Visitor it is given to SINK, through a buffer flushed at the end,
+     *  and returns their number. */
+    static int printLog(Consumer<MessageIndex.Visitor> walk, Writer sink) {
+        SimpleDateFormat dateFormat = dateFormat();
+        Date date = new Date();
+        PrintWriter out = new PrintWriter(new BufferedWriter(sink, 1 << 16));
+        int[] count = { 0 };
+        walk.accept((id, time, message) -> {
+            date.setTime(time);
+            out.println("===");
+            out.println("commit " + id);
+            out.println("Date: " + dateFormat.format(date));
+            out.println(message);
+            out.println();
+            count[0] += 1;
+        });
+        out.flush();
+        return count[0];
     }
 
 
     public void rm(String filename) {
+        unstage(repoPath(filename));
+        save();
+    }
+
+    /** Stages FILENAME for removal, as for rm, without saving the
+     *  staging area. */
+    private void unstage(String filename) {
 
-        boolean isStage = stageMap.containsKey(filename);
-        boolean isTracked = head.getBlobMap().containsKey(filename);
+        String tracked = blobsOf(getHead()).get(filename);
+        boolean isTracked = tracked != null;
+        boolean isStage = index.contains(filename)
+            && !index.get(filename).equals(tracked);
 
 
         if (!(isTracked || isStage)) {
             failure("No reason to remove the file.");
         }
-        if (isStage) {
-            stageMap.remove(filename);
-        }
+        index.remove(filename);
 
         if (isTracked) {
-            removeList.add(filename);
-            File file = new File(filename);
-            if (file.exists()) {
-                Utils.restrictedDelete(file);
-            }
+            deleteWorkingFile(filename);
         }
 
-        storeRepo();
-
     }
 
 
+    /** Prints the IDs of the commits whose message is MSG, looking them
+     *  up in the message index. */
     public void find(String msg) {
+        printFound(loadMessageIndex().withMessage(msg));
+    }
 
-        List<String> commitIdList = Utils.plainFilenamesIn(COMMIT);
+    /** Prints the IDs of the commits whose messages contain a match for
+     *  the regular expression REGEX.  The message index narrows the
+     *  commits checked to those containing the literal text that REGEX
+     *  requires. */
+    public void findGrep(String regex) {
+        Pattern pattern = null;
+        try {
+            pattern = Pattern.compile(regex);
+        } catch (PatternSyntaxException excp) {
+            failure("Invalid regular expression.");
+        }
+        printFound(loadMessageIndex().matching(pattern));
+    }
+
+    /** Prints those of the commit IDs FOUND, which are in order, that are
+     *  still in the repository, or fails if there are none. */
+    private void printFound(Collection<String> found) {
         boolean isFind = false;
-        for (String commitID : commitIdList) {
-            if (getCommit(commitID).getMessage().equals(msg)) {
+        for (String commitID : found) {
+            if (getCommits().contains(commitID)) {
                 isFind = true;
                 System.out.println(commitID);
             }
@@ -344,7 +605,7 @@ public class Repository implements Serializable {
     public void status() {
 
         System.out.println("=== Branches ===");
-        String[] branches  = branchMap.keySet().toArray(new String[0]);
+        String[] branches  = getBranches().keySet().toArray(new String[0]);
         Arrays.sort(branches);
         for (String name: branches) {
             if (name.equals(branchName)) {
@@ -355,26 +616,36 @@ public class Repository implements Serializable {
         }
         System.out.println();
 
+        HashMap<String, String> headBlobs = blobsOf(getHead());
         System.out.println("=== Staged Files ===");
-        String[] stages = stageMap.keySet().toArray(new String[0]);
-        Arrays.sort(stages);
-        for (String filename: stages) {
-            System.out.println(filename);
+        for (String filename: index.paths()) {
+            if (!index.get(filename).equals(headBlobs.get(filename))) {
+                System.out.println(filename);
+            }
         }
         System.out.println();
 
         System.out.println("=== Removed Files ===");
-        String[] removes = removeList.toArray(new String[0]);
+        String[] removes = headBlobs.keySet().toArray(new String[0]);
         Arrays.sort(removes);
         for (String filename: removes) {
-            System.out.println(filename);
+            if (!index.contains(filename)) {
+                System.out.println(filename);
+            }
         }
         System.out.println();
 
+        WorkTree workTree = new WorkTree(CWD, index, getHasher());
         System.out.println("=== Modifications Not Staged For Commit ===");
+        for (Map.Entry<String, String> e : workTree.changes().entrySet()) {
+            System.out.println(e.getKey() + " (" + e.getValue() + ")");
+        }
         System.out.println();
 
         System.out.println("=== Untracked Files ===");
+        for (String filename : workTree.untracked()) {
+            System.out.println(filename);
+        }
         System.out.println();
 
 
@@ -383,13 +654,13 @@ public class Repository implements Serializable {
 
 
     public void branch(String name) {
-        if (branchMap.containsKey(name)) {
+        if (getBranches().containsKey(name)) {
             failure("A branch with that name already exists.");
         } else {
-            branchMap.put(name, head);
+            setBranch(name, head);
         }
 
-        storeRepo();
+        save();
     }
 
 
@@ -397,54 +668,35 @@ public class Repository implements Serializable {
         if (name.equals(branchName)) {
             failure("Cannot remove the current branch.");
         }
-        if (branchMap.containsKey(name)) {
-            branchMap.remove(name);
+        if (getBranches().containsKey(name)) {
+            setBranch(name, null);
         } else {
             failure("A branch with that name does not exist.");
         }
 
-        storeRepo();
+        save();
     }
 
     public void reset(String commitID) {
 
         Commit resetCommit = getCommit(toFullID(commitID));
 
-        List<String> workDir = Utils.plainFilenamesIn(CWD);
-        HashMap<String, Blob> blobMap = resetCommit.getBlobMap();
-        for (String filename: workDir) {
-            if (!head.getBlobMap().containsKey(filename)
-                    && blobMap.containsKey(filename)) {
-                failure("There is an untracked file in the way; "
-                        + "delete it, or add and commit it first.");
-            }
-            if (!blobMap.containsKey(filename)) {
-                Utils.restrictedDelete(Utils.join(CWD, filename));
-            }
-        }
+        checkoutCommit(resetCommit);
 
-        for (String filename :blobMap.keySet()) {
-            File f = Utils.join(CWD, filename);
-            Utils.writeContents(f, blobMap.get(filename).getStrContents());
-        }
-
-        head = resetCommit;
-        clearFolder(STAGING);
-        removeList.clear();
-        stageMap.clear();
-        branchMap.put(branchName, head);
+        moveHead(resetCommit, "reset: moving to " + resetCommit.getcommitID());
+        setBranch(branchName, head);
 
-        storeRepo();
+        save();
 
     }
 
 
     public void merge(String mergeBranch) {
-        if (!stageMap.isEmpty() || !removeList.isEmpty()) {
+        if (!index.matches(blobsOf(getHead()))) {
             failure("You have uncommitted changes.");
         }
 
-        if (!branchMap.containsKey(mergeBranch)) {
+        if (!getBranches().containsKey(mergeBranch)) {
             failure("A branch with that name does not exist.");
         }
 
@@ -453,14 +705,14 @@ public class Repository implements Serializable {
         }
 
 
-        Commit mergeHead = branchMap.get(mergeBranch);
-        Commit currHead = head;
+        Commit mergeHead = getCommit(getBranches().get(mergeBranch));
+        Commit currHead = getHead();
         String mergeCommitId = mergeHead.getcommitID();
 
-        HashMap<String, Blob> mergeBlobMap = mergeHead.getBlobMap();
-        HashMap<String, Blob> currBlobMap = head.getBlobMap();
+        HashMap<String, String> mergeBlobMap = blobsOf(mergeHead);
+        HashMap<String, String> currBlobMap = blobsOf(currHead);
 
-        List<String> workDir = Utils.plainFilenamesIn(CWD);
+        List<String> workDir = WorkTree.files(CWD);
 
         for (String filename: workDir) {
             if (!currBlobMap.containsKey(filename)
@@ -469,14 +721,21 @@ public class Repository implements Serializable {
                         + "delete it, or add and commit it first.");
             }
         }
-        Commit splitPoint = getSplitPoint(head, mergeHead);
-
-        if (splitPoint.getcommitID().equals(head.getcommitID())) {
-            checkoutBranch(mergeBranch);
-            failure("Current branch fast-forwarded.");
+        CommitGraph graph = getCommitGraph();
+        int[] splitPoints = graph.mergeBases(graph.position(head),
+                                             graph.position(mergeCommitId));
+        if (splitPoints.length == 1) {
+            String splitPoint = graph.id(splitPoints[0]);
+            if (splitPoint.equals(mergeCommitId)) {
+                failure("Given branch is an ancestor of the current branch.");
+            }
+            if (splitPoint.equals(head)) {
+                checkoutBranch(mergeBranch);
+                failure("Current branch fast-forwarded.");
+            }
         }
 
-        HashMap<String, Blob> splitBlobMap = splitPoint.getBlobMap();
+        HashMap<String, String> splitBlobMap = splitFiles(splitPoints);
 
         traverseSplitBlob(splitBlobMap, mergeCommitId, mergeBlobMap, currBlobMap);
 
@@ -490,9 +749,8 @@ public class Repository implements Serializable {
                             currBlobMap.get(filename), mergeBlobMap.get(filename));
 
                 } else if (!currBlobMap.containsKey(filename)) {
-                    Utils.writeContents(new File(filename),
-                            mergeBlobMap.get(filename).getStrContents());
-                    add(filename);
+                    writeWorkingFile(filename, mergeBlobMap.get(filename));
+                    stage(filename);
                 } else {
                     continue;
 
@@ -500,50 +758,50 @@ public class Repository implements Serializable {
             }
         }
 
-        commit("Merged " + mergeBranch + " into " + branchName + ".");
-        head.setParent(new Commit[] {currHead, mergeHead});
-
-        storeRepo();
+        commit("Merged " + mergeBranch + " into " + branchName + ".",
+                mergeCommitId);
 
     }
 
 
-    private void mergeConflict(String filename, Blob currFile, Blob mergeFile) {
-        StringBuilder contentBuilder = new StringBuilder();
-        String currContent = "";
-        String mergeContent = "";
-
-        if (currFile.getStrContents() != null) {
-            currContent = currFile.getStrContents();
-        }
-        if (mergeFile.getStrContents() != null) {
-            mergeContent = mergeFile.getStrContents();
+    /** Writes the conflicted version of FILENAME, whose blob IDs in the
+     *  current and given heads are CURRFILE and MERGEFILE (null where the
+     *  file is absent), and stages it. */
+    private void mergeConflict(String filename, String currFile, String mergeFile) {
+        File file = Utils.join(CWD, filename);
+        file.getParentFile().mkdirs();
+        try (OutputStream out = new BufferedOutputStream(
+                Files.newOutputStream(file.toPath()))) {
+            out.write("<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8));
+            if (currFile != null) {
+                getObjects().copyTo(currFile, out);
+            }
+            out.write("=======\n".getBytes(StandardCharsets.UTF_8));
+            if (mergeFile != null) {
+                getObjects().copyTo(mergeFile, out);
+            }
+            out.write(">>>>>>>\n".getBytes(StandardCharsets.UTF_8));
+        } catch (IOException excp) {
+            throw error("Cannot write %s: %s", filename, excp.getMessage());
         }
-
-        contentBuilder.append("<<<<<<< HEAD\n");
-        contentBuilder.append(currContent);
-        contentBuilder.append("=======\n");
-        contentBuilder.append(mergeContent);
-        contentBuilder.append(">>>>>>>\n");
-        Utils.writeContents(new File(filename), contentBuilder.toString());
         Utils.message("Encountered a merge conflict.");
-        add(filename);
+        stage(filename);
 
     }
 
 
-    private void traverseSplitBlob(HashMap<String, Blob> splitBlobMap,
+    private void traverseSplitBlob(HashMap<String, String> splitBlobMap,
                                    String mergeCommitId,
-                                   HashMap<String, Blob> mergeBlobMap,
-                                   HashMap<String, Blob> currBlobMap) {
+                                   HashMap<String, String> mergeBlobMap,
+                                   HashMap<String, String> currBlobMap) {
 
         for (String filename: splitBlobMap.keySet()) {
 
-            Blob splitFile = splitBlobMap.get(filename);
+            String splitFile = splitBlobMap.get(filename);
             if (mergeBlobMap.containsKey(filename)
                     && currBlobMap.containsKey(filename)) {
-                Blob mergeFile = mergeBlobMap.get(filename);
-                Blob currFile = currBlobMap.get(filename);
+                String mergeFile = mergeBlobMap.get(filename);
+                String currFile = currBlobMap.get(filename);
 
                 if (mergeFile.equals(currFile)) {
                     continue;
@@ -561,18 +819,18 @@ public class Repository implements Serializable {
                 }
             } else if (!mergeBlobMap.containsKey(filename)
                     && currBlobMap.containsKey(filename)) {
-                Blob currFile = currBlobMap.get(filename);
-                Blob mergeFile = new Blob();
+                String currFile = currBlobMap.get(filename);
+                String mergeFile = null;
 
                 if (currFile.equals(splitFile)) {
-                    rm(filename);
+                    unstage(filename);
                 } else {
                     mergeConflict(filename, currFile, mergeFile);
                 }
             } else if (mergeBlobMap.containsKey(filename)
                     && !currBlobMap.containsKey(filename)) {
-                Blob mergeFile = mergeBlobMap.get(filename);
-                Blob currFile = new Blob();
+                String mergeFile = mergeBlobMap.get(filename);
+                String currFile = null;
 
                 if (mergeFile.equals(splitFile)) {
                     continue;
@@ -587,99 +845,668 @@ public class Repository implements Serializable {
     }
 
 
-    private void mergeCheckout(Blob stageBlob, String commitId, String filename) {
+    private void mergeCheckout(String stageBlob, String commitId, String filename) {
 
         checkout(commitId, filename);
-        stageMap.put(filename, stageBlob);
+        index.put(filename, stageBlob, Index.stat(Utils.join(CWD, filename)));
 
-        File stagingFile = Utils.join(STAGING, filename);
-        Utils.writeContents(stagingFile, stageBlob.getStrContents());
+    }
 
+    /** Returns the files of the split point of a merge whose best common
+     *  ancestors are the commits at positions SPLITPOINTS in the commit
+     *  graph.  With one split point, these are its files.  With several,
+     *  left by criss-cross merges, they are the files of a virtual split
+     *  point, formed by merging the split points pairwise as merge does,
+     *  against their own split point, found in the same way.  A file the
+     *  two changed in different ways is taken as in that older split
+     *  point, so that the changes to it count as changes since the
+     *  split. */
+    private HashMap<String, String> splitFiles(int[] splitPoints) {
+        CommitGraph graph = getCommitGraph();
+        if (splitPoints.length == 0) {
+            return new HashMap<>();
+        }
+        HashMap<String, String> result =
+            new HashMap<>(blobsOf(getCommit(graph.id(splitPoints[0]))));
+        for (int i = 1; i < splitPoints.length; i += 1) {
+            HashMap<String, String> other =
+                blobsOf(getCommit(graph.id(splitPoints[i])));
+            HashMap<String, String> older = splitFiles(
+                graph.mergeBases(splitPoints[0], splitPoints[i]));
+            HashSet<String> paths = new HashSet<>(result.keySet());
+            paths.addAll(other.keySet());
+            for (String path : paths) {
+                String blob = result.get(path);
+                String otherBlob = other.get(path);
+                String olderBlob = older.get(path);
+                if (Objects.equals(blob, olderBlob)) {
+                    blob = otherBlob;
+                } else if (!Objects.equals(otherBlob, olderBlob)
+                           && !Objects.equals(blob, otherBlob)) {
+                    blob = olderBlob;
+                }
+                if (blob == null) {
+                    result.remove(path);
+                } else {
+                    result.put(path, blob);
+                }
+            }
+        }
+        return result;
     }
 
-    private Commit getSplitPoint(Commit currHead, Commit mergeHead) {
 
-        List<String> currAncestor = new ArrayList<>();
-        currAncestor.add(currHead.getcommitID());
 
-        while (currHead.getParent() != null) {
-            if (currHead.getParent().length == 1) {
-                currAncestor.add(currHead.getParent()[0].getcommitID());
-                currHead = currHead.getParent()[0];
+
+
+
+    /** Writes whichever of HEAD, the files in HEADS and INDEX have
+     *  changed since they were read, together with the objects written
+     *  since the last save, as one atomic update through JOURNAL. */
+    private void save() {
+        if (headChanged) {
+            journal.write(HEAD, (REF_PREFIX + branchName + "\n")
+                          .getBytes(StandardCharsets.UTF_8));
+            headChanged = false;
+        }
+        for (String name : changedRefs) {
+            File ref = Utils.join(HEADS, name);
+            String id = getBranches().get(name);
+            if (id == null) {
+                journal.delete(ref);
             } else {
-                currAncestor.add(currHead.getParent()[1].getcommitID());
-                currHead = currHead.getParent()[1];
+                journal.write(ref, (id + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        changedRefs.clear();
+        index.save(journal);
+        journal.commit();
+        if (!reflog.isEmpty()) {
+            LOGS.getParentFile().mkdirs();
+            try {
+                Files.write(LOGS.toPath(), reflog, StandardCharsets.UTF_8,
+                            StandardOpenOption.CREATE,
+                            StandardOpenOption.APPEND);
+            } catch (IOException excp) {
+                throw error("Cannot write reflog: %s", excp.getMessage());
             }
+            reflog.clear();
         }
+    }
+
+    /** Makes COMMIT the head commit, recording the move in the reflog with
+     *  the description MSG. */
+    private void moveHead(Commit commit, String msg) {
+        String old = head == null ? NULL_ID : head;
+        head = commit.getcommitID();
+        headCommit = commit;
+        reflog.add(old + " " + head + " " + System.currentTimeMillis()
+                   + "\t" + msg);
+    }
 
-        if (currAncestor.contains(mergeHead.getcommitID())) {
-            failure("Given branch is an ancestor of the current branch.");
+    /** Returns the map from branch names to the IDs of the commits at
+     *  their tips, reading it from HEADS on first use. */
+    private HashMap<String, String> getBranches() {
+        if (branchMap == null) {
+            branchMap = new HashMap<>();
+            for (String name : Utils.plainFilenamesIn(HEADS)) {
+                branchMap.put(name, Utils.readContentsAsString(
+                    Utils.join(HEADS, name)).trim());
+            }
         }
+        return branchMap;
+    }
 
-        while (mergeHead != null) {
-            if (currAncestor.contains(mergeHead.getcommitID())) {
-                return mergeHead;
+    /** Points branch NAME at the commit with id ID, or deletes the branch
+     *  if ID is null. */
+    private void setBranch(String name, String id) {
+        if (id == null) {
+            getBranches().remove(name);
+        } else {
+            getBranches().put(name, id);
+        }
+        changedRefs.add(name);
+    }
+
+    /** Makes the working files and the index those of COMMIT, failing if
+     *  that would overwrite an untracked file.  Only the files that differ
+     *  are touched: files of the current commit that COMMIT lacks are
+     *  deleted, files staged but never committed are left as untracked
+     *  files, and a file of COMMIT is written only if its working file is
+     *  not already known from its stat data to hold the right blob.  The
+     *  files are checked and written in parallel, so switching between
+     *  commits that differ in a few files costs little more than a stat of
+     *  each file. */
+    private void checkoutCommit(Commit commit) {
+        HashMap<String, String> current = blobsOf(getHead());
+        HashMap<String, String> blobs = blobsOf(commit);
+        for (String filename : blobs.keySet()) {
+            if (!current.containsKey(filename)
+                && Utils.join(CWD, filename).isFile()) {
+                failure("There is an untracked file in the way; "
+                        + "delete it, or add and commit it first.");
             }
+        }
 
-            if (mergeHead.getParent() != null) {
-                mergeHead = mergeHead.getParent()[0];
-            } else {
-                mergeHead = null;
+        for (String filename : new ArrayList<>(index.paths())) {
+            if (!blobs.containsKey(filename)) {
+                index.remove(filename);
+            }
+        }
+        for (String filename : current.keySet()) {
+            if (!blobs.containsKey(filename)) {
+                deleteWorkingFile(filename);
             }
         }
 
-        return null;
+        BlobStore store = getObjects();
+        List<String> paths = new ArrayList<>(blobs.keySet());
+        Index.Entry[] stats = new Index.Entry[paths.size()];
+        IntStream.range(0, paths.size()).parallel().forEach(i -> {
+            String blob = blobs.get(paths.get(i));
+            File file = Utils.join(CWD, paths.get(i));
+            stats[i] = Index.stat(file);
+            if (!blob.equals(index.cachedBlob(paths.get(i), stats[i]))) {
+                file.getParentFile().mkdirs();
+                store.copyTo(blob, file);
+                stats[i] = Index.stat(file);
+            }
+        });
+        for (int i = 0; i < stats.length; i += 1) {
+            index.put(paths.get(i), blobs.get(paths.get(i)), stats[i]);
+        }
+        rememberTrees(commit.getTree(), "");
     }
 
+    /** Records in the index that directory DIR has the tree with ID TREE,
+     *  as do its subdirectories the subtrees of TREE. */
+    private void rememberTrees(String tree, String dir) {
+        index.rememberTree(dir, tree);
+        for (Map.Entry<String, String> e : getTree(tree).trees().entrySet()) {
+            rememberTrees(e.getValue(), dir + e.getKey() + "/");
+        }
+    }
 
 
+    /** Brings a repository written by an older version of Gitlet up to
+     *  date.  The state, commits and staged files of a repository of the
+     *  first version are converted as it is loaded (see convert), which
+     *  leaves only objects stored in the flat layout, without fan-out
+     *  subdirectories, to be moved here. */
+    public void migrate() {
+        getCommits().migrate();
+        getObjects().migrate();
+    }
 
 
+    /** Moves all loose commits, trees and blobs into the pack, storing blobs as
+     *  deltas against earlier versions of the same file where that saves
+     *  space. */
+    public void repack() {
+        HashMap<String, String> names = new HashMap<>();
+        for (String commitID : getCommits().ids()) {
+            for (Map.Entry<String, String> e
+                     : blobsOf(getCommit(commitID)).entrySet()) {
+                names.putIfAbsent(e.getValue(), e.getKey());
+            }
+        }
+        getCommits().repack(names, id -> true);
+        getTrees().repack(names, id -> true);
+        getObjects().repack(names, id -> true);
+        writeCommitIndexes();
+        save();
+    }
 
-    private void clearFolder(File folder) {
-        File[] files = folder.listFiles();
-        for (File f: files) {
-            if (f.isDirectory()) {
-                clearFolder(f);
-            } else {
-                f.delete();
+    /** Arranges for COMMIT_GRAPH and MESSAGE_INDEX to describe every
+     *  commit in the repository once the journal commits. */
+    private void writeCommitIndexes() {
+        CommitGraph graph = new CommitGraph(this::getCommit);
+        TreeMap<String, MessageIndex.Entry> entries = new TreeMap<>();
+        for (String commitID : getCommits().ids()) {
+            graph.position(commitID);
+            entries.put(commitID, new MessageIndex.Entry(getCommit(commitID)));
+        }
+        journal.write(COMMIT_GRAPH, graph.encode());
+        journal.delete(COMMIT_GRAPH_LOG);
+        commitGraph = null;
+        writeMessageIndex(entries);
+    }
+
+    /** Arranges for MESSAGE_INDEX to hold the commits ENTRIES, a map from
+     *  commit ID to entry, and for MESSAGE_LOG to be deleted, once the
+     *  journal commits. */
+    private void writeMessageIndex(TreeMap<String, MessageIndex.Entry> entries) {
+        journal.write(MESSAGE_INDEX, MessageIndex.encode(entries));
+        journal.delete(MESSAGE_LOG);
+    }
+
+
+    /** Deletes the commits and blobs that cannot be reached from any
+     *  branch, the head commit, the index, or the entries of the reflog
+     *  made within the last GC_GRACE_PERIOD, together with temporary files
+     *  left by interrupted writes, and then packs the loose objects that
+     *  remain reachable.  Unreachable loose objects and temporary files
+     *  written within GC_GRACE_PERIOD are kept too, since a command
+     *  running at the same time may be about to refer to them, and older
+     *  reflog entries are dropped.  Unreachable packed objects are written
+     *  out as new loose objects, to be kept for the grace period in the
+     *  same way.  If PRUNENOW, no grace period applies.
+     *  If DRYRUN, only reports what would be deleted.  If AUTO, does
+     *  nothing unless there seem to be more loose objects than the
+     *  threshold set by GC_AUTO_SETTING, which is quick to check, and
+     *  reports nothing, since it runs after other commands. */
+    public void gc(boolean dryRun, boolean auto, boolean pruneNow) {
+        if (auto) {
+            int threshold =
+                getConfig().getInt(GC_AUTO_SETTING, GC_AUTO_THRESHOLD);
+            if (threshold <= 0 || getCommits().estimateLooseCount()
+                + getTrees().estimateLooseCount()
+                + getObjects().estimateLooseCount() < threshold) {
+                return;
+            }
+        }
+        long cutoff = pruneNow ? Long.MAX_VALUE
+            : System.currentTimeMillis() - GC_GRACE_PERIOD;
+
+        List<String> roots = new ArrayList<>(getBranches().values());
+        roots.add(head);
+        List<String> keptLog = new ArrayList<>();
+        boolean expired = false;
+        if (LOGS.isFile()) {
+            for (String line : Utils.readContentsAsString(LOGS).split("\n")) {
+                String[] fields = line.split("[ \t]", 4);
+                if (fields.length == 4 && fields[2].matches("\\d+")
+                    && Long.parseLong(fields[2]) >= cutoff) {
+                    keptLog.add(line);
+                    roots.add(fields[0]);
+                    roots.add(fields[1]);
+                } else {
+                    expired = true;
+                }
+            }
+        }
+
+        Set<String> live = new HashSet<>(index.snapshot().values());
+        HashMap<String, String> names = new HashMap<>();
+        for (String tree : index.rememberedTrees()) {
+            markTree(tree, "", live, names);
+        }
+        ArrayDeque<String> pending = new ArrayDeque<>(roots);
+        while (!pending.isEmpty()) {
+            String id = pending.pop();
+            if (live.contains(id) || !getCommits().contains(id)) {
+                continue;
+            }
+            live.add(id);
+            Commit commit = getCommit(id);
+            markTree(commit.getTree(), "", live, names);
+            if (commit.getParent() != null) {
+                pending.addAll(Arrays.asList(commit.getParent()));
+            }
+        }
+        for (String blob : new ArrayList<>(live)) {
+            List<String> chunks = getObjects().chunks(blob);
+            if (chunks != null) {
+                live.addAll(chunks);
+                for (String chunk : chunks) {
+                    names.putIfAbsent(chunk, names.getOrDefault(blob, ""));
+                }
+            }
+        }
+
+        List<File> garbage = getCommits().garbage(live, cutoff);
+        garbage.addAll(getTrees().garbage(live, cutoff));
+        garbage.addAll(getObjects().garbage(live, cutoff));
+        List<Long> packed = getPack().dead(live);
+        List<Long> pruned = pruneNow ? packed : List.of();
+        long bytes = 0;
+        for (File file : garbage) {
+            bytes += file.length();
+        }
+        for (long size : pruned) {
+            bytes += size;
+        }
+        int count = garbage.size() + pruned.size();
+
+        if (dryRun) {
+            System.out.printf("Would remove %d objects (%d bytes).%n",
+                              count, bytes);
+            return;
+        }
+        if (!packed.isEmpty()) {
+            if (!pruneNow) {
+                getCommits().loosen(live);
+                getTrees().loosen(live);
+                getObjects().loosen(live);
+            }
+            getPack().retain(live, Comparator
+                             .comparing((String id) -> names.getOrDefault(id, ""))
+                             .thenComparing(id -> id), journal);
+        }
+        if (expired) {
+            StringBuilder log = new StringBuilder();
+            for (String line : keptLog) {
+                log.append(line).append('\n');
+            }
+            journal.write(LOGS, log.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        save();
+        getPack().reset();
+        for (File file : garbage) {
+            file.delete();
+            if (!file.getName().startsWith("tmp-")) {
+                file.getParentFile().delete();
+            }
+        }
+        getCommits().repack(names, live::contains);
+        getTrees().repack(names, live::contains);
+        getObjects().repack(names, live::contains);
+        writeCommitIndexes();
+        save();
+        if (!auto) {
+            System.out.printf("Removed %d objects (%d bytes).%n",
+                              count, bytes);
+        }
+    }
+
+
+    /** Adds the tree with ID TREE, for directory DIR, to LIVE with its
+     *  subtrees and blobs, unless it is already there, and records in
+     *  NAMES the path of each blob not already named. */
+    private void markTree(String tree, String dir, Set<String> live,
+                          Map<String, String> names) {
+        if (!live.add(tree)) {
+            return;
+        }
+        Tree contents = getTree(tree);
+        for (Map.Entry<String, String> e : contents.blobs().entrySet()) {
+            live.add(e.getValue());
+            names.putIfAbsent(e.getValue(), dir + e.getKey());
+        }
+        for (Map.Entry<String, String> e : contents.trees().entrySet()) {
+            markTree(e.getValue(), dir + e.getKey() + "/", live, names);
+        }
+    }
+
+
+    /** Trains a preset compression dictionary on a sample of the
+     *  repository's commits and uses it to compress commits from now on.
+     *  Commits are small and mostly alike, so they compress poorly on
+     *  their own but well against such a dictionary. */
+    public void trainDictionary() {
+        List<byte[]> samples = new ArrayList<>();
+        for (String commitID : getCommits().ids()) {
+            if (samples.size() == ZlibDictionary.MAX_SAMPLES) {
+                break;
+            }
+            samples.add(getCommits().read(commitID));
+        }
+        new ZlibDictionary(Utils.join(GITLET_DIR, "dictionaries"))
+            .install(ZlibDictionary.train(samples), journal);
+        journal.commit();
+    }
+
+
+    /** Returns the store of blob contents. */
+    private BlobStore getObjects() {
+        if (objects == null) {
+            objects = new BlobStore(
+                new ObjectStore(OBJECTS, getPack(), Pack.BLOB_TYPE, null,
+                                journal),
+                new ObjectStore(MANIFESTS, getPack(), Pack.MANIFEST_TYPE, null,
+                                journal),
+                getHasher(), getConfig());
+        }
+        return objects;
+    }
+
+    /** Returns the store of commits. */
+    private ObjectStore getCommits() {
+        if (commits == null) {
+            commits = new ObjectStore(COMMIT, getPack(), Pack.COMMIT_TYPE,
+                    new ZlibDictionary(Utils.join(GITLET_DIR, "dictionaries")),
+                    journal);
+        }
+        return commits;
+    }
+
+    /** Returns the repository's settings. */
+    private Config getConfig() {
+        if (config == null) {
+            config = new Config(Utils.join(GITLET_DIR, "config"));
+        }
+        return config;
+    }
+
+    /** Returns the hasher for the repository's object format, which is
+     *  set by OBJECT_FORMAT_SETTING. */
+    private Hasher getHasher() {
+        if (hasher == null) {
+            hasher = new Hasher(getConfig().get(OBJECT_FORMAT_SETTING,
+                                                Hasher.SHA1));
+            if (hasher.idLength() != UID_LENGTH) {
+                throw error("Object format %s is not supported.",
+                            hasher.format());
             }
         }
+        return hasher;
     }
 
+    /** Returns the store of trees. */
+    private ObjectStore getTrees() {
+        if (trees == null) {
+            trees = new ObjectStore(TREES, getPack(), Pack.TREE_TYPE, null,
+                                    journal);
+        }
+        return trees;
+    }
 
-    private void storeRepo() {
-        Utils.writeObject(REPO, this);
+    /** Returns the tree with the given ID. */
+    private Tree getTree(String id) {
+        Tree tree = treeCache.get(id);
+        if (tree == null) {
+            tree = Tree.decode(getTrees().read(id));
+            treeCache.put(id, tree);
+        }
+        return tree;
+    }
+
+    /** Returns a map from the path of each file in COMMIT to its blob ID,
+     *  which must not be modified. */
+    private HashMap<String, String> blobsOf(Commit commit) {
+        HashMap<String, String> files = fileCache.get(commit.getTree());
+        if (files == null) {
+            files = new HashMap<>();
+            addFiles(commit.getTree(), "", files);
+            fileCache.put(commit.getTree(), files);
+        }
+        return files;
+    }
+
+    /** Adds to FILES the path and blob ID of each file in the tree with ID
+     *  TREE, which is that of directory DIR. */
+    private void addFiles(String tree, String dir, Map<String, String> files) {
+        Tree contents = getTree(tree);
+        for (Map.Entry<String, String> e : contents.blobs().entrySet()) {
+            files.put(dir + e.getKey(), e.getValue());
+        }
+        for (Map.Entry<String, String> e : contents.trees().entrySet()) {
+            addFiles(e.getValue(), dir + e.getKey() + "/", files);
+        }
+    }
+
+    /** Returns the path of the directory NAME, given relative to the
+     *  working directory, as a prefix of the paths of the files in it: as
+     *  for repoPath, followed by '/', or empty for the working directory
+     *  itself. */
+    private String repoDir(String name) {
+        Path path = CWD.toPath().toAbsolutePath().normalize();
+        if (path.equals(path.resolve(name).normalize())) {
+            return "";
+        }
+        return repoPath(name) + "/";
+    }
+
+    /** Returns the path of the file NAME, given relative to the working
+     *  directory, in the form used in commits and the index: relative to
+     *  the working directory, with '/' between directories. */
+    private String repoPath(String name) {
+        Path path = CWD.toPath().toAbsolutePath().normalize();
+        Path file = path.resolve(name).normalize();
+        if (!file.startsWith(path) || file.equals(path)
+            || file.startsWith(GITLET_DIR.toPath().toAbsolutePath().normalize())) {
+            failure("File does not exist.");
+        }
+        return path.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    /** Writes the contents of blob BLOB to the working file PATH, creating
+     *  the directories containing it as needed. */
+    private void writeWorkingFile(String path, String blob) {
+        File file = Utils.join(CWD, path);
+        file.getParentFile().mkdirs();
+        getObjects().copyTo(blob, file);
+    }
+
+    /** Deletes the working file PATH, if it exists, together with any
+     *  directories containing it that this leaves empty. */
+    private void deleteWorkingFile(String path) {
+        File file = Utils.join(CWD, path);
+        if (file.isFile()) {
+            file.delete();
+        }
+        for (File dir = file.getParentFile(); !dir.equals(CWD)
+                 && dir.delete(); dir = dir.getParentFile()) {
+            continue;
+        }
+    }
+
+    /** Returns the index of commit messages. */
+    private MessageIndex getMessageIndex() {
+        if (messageIndex == null) {
+            messageIndex = new MessageIndex(MESSAGE_INDEX, MESSAGE_LOG);
+        }
+        return messageIndex;
+    }
+
+    /** Returns true iff the repository has a table of its commits that
+     *  includes the head commit.  It has none if it was made by an older
+     *  version of Gitlet, and lacks the head if its log was damaged. */
+    private boolean hasMessageIndex() {
+        return getMessageIndex().exists() && getMessageIndex().contains(head);
+    }
+
+    /** Returns the table and index of commits for a lookup or a log.  If
+     *  the repository has no usable one (see hasMessageIndex), it is built
+     *  in memory from every commit, so that commands that only read do
+     *  not write; the next commit writes it. */
+    private MessageIndex loadMessageIndex() {
+        if (hasMessageIndex()) {
+            return getMessageIndex();
+        }
+        return new MessageIndex(messageEntries());
+    }
+
+    /** Returns a map from the ID of every commit in the repository to its
+     *  entry in the table of commits. */
+    private TreeMap<String, MessageIndex.Entry> messageEntries() {
+        TreeMap<String, MessageIndex.Entry> entries = new TreeMap<>();
+        for (String commitID : getCommits().ids()) {
+            entries.put(commitID, new MessageIndex.Entry(getCommit(commitID)));
+        }
+        return entries;
+    }
+
+    /** Returns the commit graph, to which commits missing from it are
+     *  added as needed. */
+    private CommitGraph getCommitGraph() {
+        if (commitGraph == null) {
+            commitGraph = new CommitGraph(COMMIT_GRAPH, COMMIT_GRAPH_LOG,
+                                          this::getCommit);
+        }
+        return commitGraph;
+    }
+
+    /** Returns the pack of commits and blobs. */
+    private Pack getPack() {
+        if (pack == null) {
+            pack = new Pack(Utils.join(GITLET_DIR, "pack"));
+        }
+        return pack;
+    }
+
+    /** Adds COMMIT to the store of commits. */
+    private void writeCommit(Commit commit) {
+        getCommits().write(commit.getcommitID(), commit.encode());
+        commitCache.put(commit.getcommitID(), commit);
+        if (getMessageIndex().exists() || commit.getParent() == null) {
+            getMessageIndex().append(new MessageIndex.Entry(commit));
+            journal.sync(MESSAGE_LOG);
+        }
+    }
+
+    /** Appends COMMIT, which must have been written, to COMMIT_GRAPH_LOG,
+     *  so that later commands find the whole history in the commit graph
+     *  rather than decoding the commits missing from it.  Once the log is
+     *  large enough, arranges for it to be merged into COMMIT_GRAPH when
+     *  the journal commits. */
+    private void addToCommitGraph(Commit commit) {
+        CommitGraph graph = getCommitGraph();
+        graph.append(commit.getcommitID());
+        journal.sync(COMMIT_GRAPH_LOG);
+        if (graph.needsCompaction()) {
+            journal.write(COMMIT_GRAPH, graph.encode());
+            journal.delete(COMMIT_GRAPH_LOG);
+        }
+    }
+
+    /** Returns the current head commit, reading it from COMMIT on first
+     *  use. */
+    private Commit getHead() {
+        if (headCommit == null) {
+            headCommit = getCommit(head);
+        }
+        return headCommit;
     }
 
 
     private Commit getCommit(String uid) {
-        File file = Utils.join(COMMIT, uid);
-        if (file.exists()) {
-            return Utils.readObject(file, Commit.class);
+        Commit commit = commitCache.get(uid);
+        if (commit != null) {
+            return commit;
+        } else if (uid.length() == UID_LENGTH && getCommits().contains(uid)) {
+            commit = Commit.decode(getCommits().read(uid));
+            commitCache.put(uid, commit);
+            return commit;
         } else {
             failure("No commit with that id exists.");
             return null;
         }
     }
 
-    private String timeString(Date date) {
+    /** Returns a format for the dates of log entries. */
+    private static SimpleDateFormat dateFormat() {
         SimpleDateFormat dateFormat = new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z");
         dateFormat.setTimeZone(TimeZone.getTimeZone("GMT-08"));
-        return dateFormat.format(date);
-
+        return dateFormat;
     }
 
+    /** Returns the full ID of the commit whose ID starts with ID, which
+     *  may be abbreviated to any unique prefix.  Packed commits are found
+     *  through the pack index and loose ones by listing only the fan-out
+     *  directory for the prefix.  Fails if there is no such commit, or if
+     *  there are several. */
     private String toFullID(String id) {
-        List<String> commitList = Utils.plainFilenamesIn(COMMIT);
-        for (String commitID: commitList) {
-            if (commitID.contains(id)) {
-                return commitID;
-            }
+        if (id.isEmpty() || !id.matches("[0-9a-f]{1," + UID_LENGTH + "}")) {
+            failure("No commit with that id exists.");
         }
-        failure("No commit with that id exists.");
-
-        return null;
+        List<String> commitList = getCommits().idsWithPrefix(id);
+        if (commitList.isEmpty()) {
+            failure("No commit with that id exists.");
+        } else if (commitList.size() > 1) {
+            failure("Commit id " + id + " is ambiguous.");
+        }
+        return commitList.get(0);
     }
 
 
@@ -0,0 +1,287 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamField;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/** A repository as written by the first version of Gitlet, which kept
+ *  its state in .gitlet/repository as a serialized Repository, each
+ *  commit in .gitlet/commits as a serialized Commit named by its ID, and
+ *  the staged files in .gitlet/staging.  A commit held its parents and
+ *  the Blobs of its files, each with the whole contents of its file, as
+ *  objects, so that each serialized commit holds its entire history.
+ *
+ *  Those classes no longer exist in their old form, so their objects are
+ *  read as instances of stand-ins with the same fields (SavedRepository,
+ *  SavedCommit and SavedBlob): the descriptor of each old class in the
+ *  stream is replaced by that of its stand-in, once their fields have
+ *  been checked to agree.
+ *  @author
+ */
+class SerializedRepository {
+
+    /** The Repository of the first version of Gitlet. */
+    static class SavedRepository implements Serializable {
+        /** Computed from the old class. */
+        private static final long serialVersionUID = 2567443293631276951L;
+        /** The working directory, .gitlet directory, commit directory,
+         *  staging directory and state file. */
+        File CWD, GITLET_DIR, COMMIT, STAGING, REPO;
+        /** The staged files, by name. */
+        HashMap<String, SavedBlob> stageMap;
+        /** The head commit. */
+        SavedCommit head;
+        /** The files staged for removal. */
+        List<String> removeList;
+        /** The commit at the tip of each branch, by name. */
+        HashMap<String, SavedCommit> branchMap;
+        /** The current branch. */
+        String branchName;
+    }
+
+    /** The Commit of the first version of Gitlet. */
+    static class SavedCommit implements Serializable {
+        /** Computed from the old class. */
+        private static final long serialVersionUID = 5462273578859464564L;
+        /** The message. */
+        String message;
+        /** The parents, first parent first, or null for the initial
+         *  commit. */
+        SavedCommit[] parent;
+        /** The time of the commit. */
+        Date date;
+        /** The ID. */
+        String id;
+        /** The blob of each file, by name. */
+        HashMap<String, SavedBlob> blobMap;
+    }
+
+    /** The Blob of the first version of Gitlet. */
+    static class SavedBlob implements Serializable {
+        /** Computed from the old class. */
+        private static final long serialVersionUID = -9182408698753886466L;
+        /** Unused. */
+        byte[] byteContents;
+        /** The contents of the file. */
+        String stringContents;
+        /** The name of the file. */
+        String name;
+        /** The old blob ID, a hash of the name and contents. */
+        String blobid;
+
+        /** Returns the contents of the file. */
+        byte[] contents() {
+            return stringContents.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /** The .gitlet directory. */
+    private final File gitletDir;
+    /** The repository's state. */
+    private final SavedRepository state;
+
+    /** The repository in GITLETDIR, which must be in the old format. */
+    SerializedRepository(File gitletDir) {
+        this.gitletDir = gitletDir;
+        this.state = read(Utils.readContents(stateFile(gitletDir)),
+                          SavedRepository.class);
+    }
+
+    /** Returns true iff GITLETDIR holds a repository in the old format. */
+    static boolean isIn(File gitletDir) {
+        File file = stateFile(gitletDir);
+        return file.isFile()
+            && Codec.isJavaSerialized(Utils.readContents(file));
+    }
+
+    /** Returns the name of the current branch. */
+    String branch() {
+        return state.branchName;
+    }
+
+    /** Returns the ID of the head commit. */
+    String head() {
+        return state.head.id;
+    }
+
+    /** Returns a map from each branch name to the ID of its tip. */
+    HashMap<String, String> branches() {
+        HashMap<String, String> result = new HashMap<>();
+        for (String name : state.branchMap.keySet()) {
+            result.put(name, state.branchMap.get(name).id);
+        }
+        return result;
+    }
+
+    /** Returns the staged files, by name. */
+    HashMap<String, SavedBlob> staged() {
+        return state.stageMap;
+    }
+
+    /** Returns the files staged for removal. */
+    List<String> removed() {
+        return state.removeList;
+    }
+
+    /** Returns every commit, by ID, each after its parents: those in the
+     *  commit directory, which holds every commit ever made, and their
+     *  ancestors. */
+    LinkedHashMap<String, SavedCommit> commits() {
+        LinkedHashMap<String, SavedCommit> result = new LinkedHashMap<>();
+        add(state.head, result);
+        for (SavedCommit tip : state.branchMap.values()) {
+            add(tip, result);
+        }
+        for (File file : commitFiles()) {
+            if (!result.containsKey(file.getName())) {
+                add(read(Utils.readContents(file), SavedCommit.class),
+                    result);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the files holding the repository in the old format. */
+    List<File> files() {
+        List<File> result = commitFiles();
+        result.add(stateFile(gitletDir));
+        File[] staged = Utils.join(gitletDir, "staging").listFiles();
+        if (staged != null) {
+            for (File file : staged) {
+                result.add(file);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the files of the commit directory that hold commits. */
+    private List<File> commitFiles() {
+        List<File> result = new ArrayList<>();
+        File dir = Utils.join(gitletDir, "commits");
+        List<String> names = Utils.plainFilenamesIn(dir);
+        if (names != null) {
+            for (String name : names) {
+                if (name.length() == Utils.UID_LENGTH) {
+                    result.add(Utils.join(dir, name));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Adds COMMIT and its ancestors that are not yet in RESULT to
+     *  RESULT, each after its parents. */
+    private static void add(SavedCommit commit,
+                            LinkedHashMap<String, SavedCommit> result) {
+        List<SavedCommit> pending = new ArrayList<>();
+        pending.add(commit);
+        while (!pending.isEmpty()) {
+            SavedCommit next = pending.get(pending.size() - 1);
+            if (result.containsKey(next.id)) {
+                pending.remove(pending.size() - 1);
+                continue;
+            }
+            boolean ready = true;
+            if (next.parent != null) {
+                for (SavedCommit p : next.parent) {
+                    if (!result.containsKey(p.id)) {
+                        pending.add(p);
+                        ready = false;
+                    }
+                }
+            }
+            if (ready) {
+                result.put(next.id, next);
+                pending.remove(pending.size() - 1);
+            }
+        }
+    }
+
+    /** Returns the file holding the state of the repository in
+     *  GITLETDIR. */
+    private static File stateFile(File gitletDir) {
+        return Utils.join(gitletDir, "repository");
+    }
+
+    /** Returns the object of class TYPE serialized in DATA by the first
+     *  version of Gitlet. */
+    static <T> T read(byte[] data, Class<T> type) {
+        try (ObjectInputStream in = new Input(new ByteArrayInputStream(data))) {
+            return type.cast(in.readObject());
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw Utils.error("Cannot read repository of older Gitlet: %s",
+                              excp.getMessage());
+        }
+    }
+
+    /** A stream that reads the old classes as their stand-ins. */
+    private static class Input extends ObjectInputStream {
+
+        /** A stream reading serialized objects from IN. */
+        Input(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor()
+            throws IOException, ClassNotFoundException {
+            ObjectStreamClass desc = super.readClassDescriptor();
+            Class<?> standIn = standIn(desc.getName());
+            if (standIn == null) {
+                return desc;
+            }
+            ObjectStreamClass local = ObjectStreamClass.lookup(standIn);
+            if (!sameFields(desc.getFields(), local.getFields())) {
+                throw new InvalidClassException(desc.getName(),
+                                                "unexpected fields");
+            }
+            return local;
+        }
+
+        /** Returns the stand-in for the class named NAME in the stream,
+         *  or null if it is to be read as itself. */
+        private static Class<?> standIn(String name) {
+            switch (name) {
+            case "gitlet.Repository":
+                return SavedRepository.class;
+            case "gitlet.Commit":
+                return SavedCommit.class;
+            case "[Lgitlet.Commit;":
+                return SavedCommit[].class;
+            case "gitlet.Blob":
+                return SavedBlob.class;
+            default:
+                return null;
+            }
+        }
+
+        /** Returns true iff the serializable fields FIELDS of an old class
+         *  have the names and kinds of the fields LOCAL of its stand-in. */
+        private static boolean sameFields(ObjectStreamField[] fields,
+                                          ObjectStreamField[] local) {
+            if (fields.length != local.length) {
+                return false;
+            }
+            for (int i = 0; i < fields.length; i += 1) {
+                if (!fields[i].getName().equals(local[i].getName())
+                    || fields[i].getTypeCode() != local[i].getTypeCode()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
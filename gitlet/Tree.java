@@ -0,0 +1,111 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.TreeMap;
+
+/** The contents of one directory of a commit: the blob ID of each file
+ *  directly in it and the tree ID of each subdirectory.  A tree is
+ *  identified by the SHA-1 hash of its encoding, so a directory whose
+ *  contents are unchanged keeps its ID, and is shared by every commit
+ *  that contains it; a change to one file gives new trees only for the
+ *  directories on its path.
+ *
+ *  A tree is encoded as a Codec record holding the number of entries
+ *  followed by each entry in order of name: its type (BLOB or TREE), its
+ *  name, and its raw ID.
+ *  @author
+ */
+class Tree {
+
+    /** Kind byte of an encoded tree. */
+    private static final int KIND = 'T';
+    /** Version of the tree encoding. */
+    private static final int VERSION = 1;
+    /** Type of an entry for a file. */
+    private static final int BLOB = 1;
+    /** Type of an entry for a subdirectory. */
+    private static final int TREE = 2;
+
+    /** Maps the name of each file in the directory to its blob ID. */
+    private final TreeMap<String, String> blobs = new TreeMap<>();
+    /** Maps the name of each subdirectory to its tree ID. */
+    private final TreeMap<String, String> trees = new TreeMap<>();
+
+    /** Records that file NAME holds blob ID. */
+    void putBlob(String name, String id) {
+        blobs.put(name, id);
+    }
+
+    /** Records that subdirectory NAME has tree ID. */
+    void putTree(String name, String id) {
+        trees.put(name, id);
+    }
+
+    /** Returns a map from the name of each file in the directory to its
+     *  blob ID, in order of name. */
+    TreeMap<String, String> blobs() {
+        return blobs;
+    }
+
+    /** Returns a map from the name of each subdirectory to its tree ID,
+     *  in order of name. */
+    TreeMap<String, String> trees() {
+        return trees;
+    }
+
+    /** Returns an estimate of the memory taken by this tree, in bytes. */
+    long weight() {
+        long result = 96;
+        for (String name : blobs.keySet()) {
+            result += 160 + name.length();
+        }
+        for (String name : trees.keySet()) {
+            result += 160 + name.length();
+        }
+        return result;
+    }
+
+    /** Returns this tree's encoding. */
+    byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = Codec.start(bytes, KIND, VERSION);
+        try {
+            out.writeInt(blobs.size() + trees.size());
+            TreeMap<String, Integer> names = new TreeMap<>();
+            blobs.keySet().forEach(name -> names.put(name, BLOB));
+            trees.keySet().forEach(name -> names.put(name, TREE));
+            for (String name : names.keySet()) {
+                int type = names.get(name);
+                out.writeByte(type);
+                Codec.writeString(out, name);
+                Codec.writeHash(out, (type == BLOB ? blobs : trees).get(name));
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Internal error encoding tree.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Returns the tree encoded in DATA. */
+    static Tree decode(byte[] data) {
+        ByteBuffer in = Codec.open(data, KIND);
+        if (Codec.version(in) != VERSION) {
+            throw Utils.error("Unsupported tree version.");
+        }
+        Tree tree = new Tree();
+        for (int n = in.getInt(); n > 0; n -= 1) {
+            int type = in.get();
+            String name = Codec.readString(in);
+            String id = Codec.readHash(in);
+            if (type == BLOB) {
+                tree.putBlob(name, id);
+            } else {
+                tree.putTree(name, id);
+            }
+        }
+        return tree;
+    }
+}
@@ -0,0 +1,186 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/** A comparison of the files in a working directory and its
+ *  subdirectories with the staging index, as shown by status.  The files
+ *  are examined in parallel on the common fork/join pool.  A file whose
+ *  stat data match its index entry is taken to be unchanged; only files
+ *  that might have changed are read and hashed.
+ *  @author
+ */
+class WorkTree {
+
+    /** Number of files examined by one task without splitting it. */
+    private static final int TASK_SIZE = 64;
+
+    /** The working directory. */
+    private final File dir;
+    /** The index the working files are compared with. */
+    private final Index index;
+    /** Computes the blob IDs of working files. */
+    private final Hasher hasher;
+
+    /** Maps each file in the index whose working file differs from its
+     *  entry to "modified" or "deleted". */
+    private final TreeMap<String, String> changes = new TreeMap<>();
+    /** The files in the working directory that are not in the index. */
+    private final TreeSet<String> untracked = new TreeSet<>();
+
+    /** The comparison of the working directory DIR with INDEX, hashing
+     *  files with HASHER. */
+    WorkTree(File dir, Index index, Hasher hasher) {
+        this.dir = dir;
+        this.index = index;
+        this.hasher = hasher;
+        TreeSet<String> names = new TreeSet<>(files(dir));
+        names.addAll(index.paths());
+        ForkJoinPool.commonPool().invoke(
+            new Scan(this, new ArrayList<>(names), 0, names.size()))
+            .addTo(this);
+    }
+
+    /** Returns the paths, relative to DIR and with '/' between
+     *  directories, of the plain files in DIR and its subdirectories other
+     *  than the .gitlet directory, in order. */
+    static List<String> files(File dir) {
+        Path top = dir.toPath();
+        List<String> result = new ArrayList<>();
+        try {
+            Files.walkFileTree(top, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(
+                    Path subdir, BasicFileAttributes attrs) {
+                    return subdir.getFileName().toString().equals(".gitlet")
+                        && subdir.getParent().equals(top)
+                        ? FileVisitResult.SKIP_SUBTREE
+                        : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file,
+                                                 BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile()) {
+                        result.add(top.relativize(file).toString()
+                                   .replace(File.separatorChar, '/'));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file,
+                                                       IOException excp) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException excp) {
+            throw Utils.error("Cannot list %s: %s", dir, excp.getMessage());
+        }
+        result.sort(null);
+        return result;
+    }
+
+    /** Returns a map from each file in the index whose working file has
+     *  been modified or deleted to "modified" or "deleted", in order of
+     *  file name. */
+    TreeMap<String, String> changes() {
+        return changes;
+    }
+
+    /** Returns the files in the working directory that are not in the
+     *  index, in order. */
+    TreeSet<String> untracked() {
+        return untracked;
+    }
+
+    /** The results of examining some of the files. */
+    private static class Result {
+        /** File names and changes, as for CHANGES. */
+        private final List<String[]> changes = new ArrayList<>();
+        /** Untracked file names. */
+        private final List<String> untracked = new ArrayList<>();
+
+        /** Adds the results in OTHER to these and returns this. */
+        Result merge(Result other) {
+            changes.addAll(other.changes);
+            untracked.addAll(other.untracked);
+            return this;
+        }
+
+        /** Records these results in TREE. */
+        void addTo(WorkTree tree) {
+            for (String[] change : changes) {
+                tree.changes.put(change[0], change[1]);
+            }
+            tree.untracked.addAll(untracked);
+        }
+    }
+
+    /** The task of examining the files NAMES[LOW .. HIGH) of a WorkTree. */
+    private static class Scan extends RecursiveTask<Result> {
+        /** Unused: tasks are never serialized, though their superclass
+         *  is Serializable. */
+        private static final long serialVersionUID = 1L;
+
+        /** The comparison being made. */
+        private final WorkTree tree;
+        /** The names of all the files being examined. */
+        private final List<String> names;
+        /** The bounds of the files examined by this task. */
+        private final int low, high;
+
+        /** The task examining NAMES[LOW .. HIGH) for TREE. */
+        Scan(WorkTree tree, List<String> names, int low, int high) {
+            this.tree = tree;
+            this.names = names;
+            this.low = low;
+            this.high = high;
+        }
+
+        @Override
+        protected Result compute() {
+            if (high - low > TASK_SIZE) {
+                int mid = (low + high) >>> 1;
+                Scan left = new Scan(tree, names, low, mid);
+                left.fork();
+                Result right = new Scan(tree, names, mid, high).compute();
+                return left.join().merge(right);
+            }
+            Result result = new Result();
+            for (int i = low; i < high; i += 1) {
+                examine(names.get(i), result);
+            }
+            return result;
+        }
+
+        /** Compares the working file NAME with its index entry, recording
+         *  any difference in RESULT. */
+        private void examine(String name, Result result) {
+            Index index = tree.index;
+            File file = Utils.join(tree.dir, name);
+            Index.Entry stat = Index.stat(file);
+            if (!index.contains(name)) {
+                if (stat != null) {
+                    result.untracked.add(name);
+                }
+            } else if (stat == null) {
+                result.changes.add(new String[] { name, "deleted" });
+            } else if (index.cachedBlob(name, stat) == null
+                       && !tree.hasher.hash(file).equals(index.get(name))) {
+                result.changes.add(new String[] { name, "modified" });
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.zip.Adler32;
+
+/** The preset dictionaries used to compress small loose objects.  Each
+ *  dictionary is kept in a file of DIR named by its Adler-32 checksum in
+ *  hex, which is also what zlib records in a stream compressed with it,
+ *  so a reader can always find the dictionary a stream needs.  The file
+ *  "current" holds the checksum of the dictionary used for new objects;
+ *  without it, new objects are compressed with no dictionary.
+ *  @author
+ */
+class ZlibDictionary {
+
+    /** Largest useful dictionary: the size of the zlib window. */
+    static final int MAX_SIZE = 32 * 1024;
+    /** Length of the substrings counted when training. */
+    private static final int GRAM = 8;
+    /** Largest number of objects sampled when training. */
+    static final int MAX_SAMPLES = 1000;
+
+    /** The directory holding the dictionaries. */
+    private final File dir;
+
+    /** The dictionaries read so far, by checksum. */
+    private final HashMap<Integer, byte[]> loaded = new HashMap<>();
+
+    /** The dictionaries kept in DIR. */
+    ZlibDictionary(File dir) {
+        this.dir = dir;
+    }
+
+    /** Returns the dictionary to compress new objects with, or null if
+     *  there is none. */
+    byte[] current() {
+        File current = Utils.join(dir, "current");
+        if (!current.isFile()) {
+            return null;
+        }
+        String adler = Utils.readContentsAsString(current).trim();
+        return forChecksum(Integer.parseUnsignedInt(adler, 16));
+    }
+
+    /** Returns the dictionary whose Adler-32 checksum is ADLER.  Throws
+     *  a GitletException if there is none. */
+    byte[] forChecksum(int adler) {
+        byte[] dict = loaded.get(adler);
+        if (dict == null) {
+            File file = Utils.join(dir, Integer.toHexString(adler));
+            if (!file.isFile()) {
+                throw Utils.error("Missing compression dictionary %08x.",
+                                  adler);
+            }
+            dict = Utils.readContents(file);
+            loaded.put(adler, dict);
+        }
+        return dict;
+    }
+
+    /** Arranges for DICT to be stored and made the current dictionary
+     *  when JOURNAL commits. */
+    void install(byte[] dict, Journal journal) {
+        Adler32 adler = new Adler32();
+        adler.update(dict);
+        String name = Integer.toHexString((int) adler.getValue());
+        journal.write(Utils.join(dir, name), dict);
+        journal.write(Utils.join(dir, "current"),
+                      name.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Returns a dictionary for compressing objects like SAMPLES.  It
+     *  holds the runs of bytes from the samples in which every GRAM-byte
+     *  substring occurs in at least half of the samples, most common
+     *  runs last, since zlib finds matches near the end of a dictionary
+     *  most cheaply. */
+    static byte[] train(List<byte[]> samples) {
+        HashMap<String, Integer> frequency = new HashMap<>();
+        for (byte[] sample : samples) {
+            HashSet<String> seen = new HashSet<>();
+            for (int i = 0; i + GRAM <= sample.length; i += 1) {
+                String gram = new String(sample, i, GRAM, StandardCharsets.ISO_8859_1);
+                if (seen.add(gram)) {
+                    frequency.merge(gram, 1, Integer::sum);
+                }
+            }
+        }
+
+        int threshold = Math.max(2, (samples.size() + 1) / 2);
+        HashMap<String, Integer> runs = new HashMap<>();
+        for (byte[] sample : samples) {
+            int start = -1;
+            for (int i = 0; i + GRAM <= sample.length + 1; i += 1) {
+                boolean common = i + GRAM <= sample.length
+                    && frequency.get(new String(sample, i, GRAM, StandardCharsets.ISO_8859_1))
+                       >= threshold;
+                if (common && start < 0) {
+                    start = i;
+                } else if (!common && start >= 0) {
+                    String run = new String(sample, start, i - 1 + GRAM - start,
+                                            StandardCharsets.ISO_8859_1);
+                    runs.merge(run, 1, Integer::sum);
+                    start = -1;
+                }
+            }
+        }
+
+        List<String> ordered = new ArrayList<>(runs.keySet());
+        ordered.sort((r0, r1) -> Integer.compare(runs.get(r1), runs.get(r0)));
+        List<String> chosen = new ArrayList<>();
+        int size = 0;
+        for (String run : ordered) {
+            if (size + run.length() > MAX_SIZE) {
+                continue;
+            }
+            chosen.add(0, run);
+            size += run.length();
+        }
+        StringBuilder dict = new StringBuilder();
+        for (String run : chosen) {
+            dict.append(run);
+        }
+        return dict.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+}